@@ -0,0 +1,72 @@
+package com.orange.ussd.registration.data.dao
+
+import androidx.room.*
+import com.orange.ussd.registration.data.model.ImportJob
+import com.orange.ussd.registration.data.model.ImportJobStatus
+
+@Dao
+interface ImportJobDao {
+    
+    @Insert
+    suspend fun insert(job: ImportJob): Long
+    
+    @Query("SELECT * FROM import_jobs WHERE id = :id")
+    suspend fun getJobById(id: Long): ImportJob?
+    
+    /**
+     * Latest unfinished job for the same file (same URI, size and head hash)
+     */
+    @Query("""
+        SELECT * FROM import_jobs
+        WHERE sourceUri = :sourceUri AND fileSize = :fileSize AND headHash = :headHash
+            AND status IN (:statuses)
+        ORDER BY id DESC LIMIT 1
+    """)
+    suspend fun findResumable(
+        sourceUri: String,
+        fileSize: Long,
+        headHash: String,
+        statuses: List<ImportJobStatus> = ImportJobStatus.RESUMABLE
+    ): ImportJob?
+    
+    /**
+     * Latest completed import of a file with exactly this content, wherever it was picked from
+     */
+    @Query("""
+        SELECT * FROM import_jobs
+        WHERE fileSize = :fileSize AND contentHash = :contentHash AND status = :completed
+        ORDER BY id DESC LIMIT 1
+    """)
+    suspend fun findCompleted(
+        fileSize: Long,
+        contentHash: String,
+        completed: ImportJobStatus = ImportJobStatus.COMPLETED
+    ): ImportJob?
+    
+    @Query("SELECT * FROM import_jobs WHERE status IN (:statuses) ORDER BY id ASC")
+    suspend fun getResumableJobs(statuses: List<ImportJobStatus> = ImportJobStatus.RESUMABLE): List<ImportJob>
+    
+    @Query("""
+        UPDATE import_jobs
+        SET committedLine = :line, committedOffset = :offset, committedSheet = :sheet,
+            rowsInserted = rowsInserted + :inserted, updatedAt = :timestamp
+        WHERE id = :id
+    """)
+    suspend fun updateCheckpoint(
+        id: Long,
+        line: Int,
+        offset: Long,
+        sheet: String?,
+        inserted: Int,
+        timestamp: Long = System.currentTimeMillis()
+    )
+    
+    @Query("UPDATE import_jobs SET status = :status, updatedAt = :timestamp WHERE id = :id")
+    suspend fun updateStatus(id: Long, status: ImportJobStatus, timestamp: Long = System.currentTimeMillis())
+    
+    @Query("UPDATE import_jobs SET status = :status, updatedAt = :timestamp WHERE id IN (:ids)")
+    suspend fun updateStatus(ids: List<Long>, status: ImportJobStatus, timestamp: Long = System.currentTimeMillis())
+    
+    @Query("DELETE FROM import_jobs")
+    suspend fun deleteAll()
+}
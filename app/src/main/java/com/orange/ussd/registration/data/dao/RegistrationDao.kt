@@ -14,6 +14,101 @@ interface RegistrationDao {
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     suspend fun insertAll(records: List<RegistrationRecord>)
     
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    suspend fun insertAllIgnoringConflicts(records: List<RegistrationRecord>): List<Long>
+    
+    @Query("""
+        UPDATE registration_records
+        SET pukLastFour = :pukLastFour, fullName = :fullName, cne = :cne, status = :pending,
+            errorMessage = NULL, ussdExecuted = 0, nameFilled = 0, cneFilled = 0, completed = 0
+        WHERE phoneNumber = :phoneNumber AND status NOT IN (:preserved)
+    """)
+    suspend fun refreshForReimport(
+        phoneNumber: String,
+        pukLastFour: String,
+        fullName: String,
+        cne: String,
+        pending: RegistrationStatus = RegistrationStatus.PENDING,
+        preserved: List<RegistrationStatus> = RegistrationStatus.PRESERVED_ON_REIMPORT
+    ): Int
+    
+    /**
+     * Import upsert: new phone numbers are inserted; existing ones get the new details and go
+     * back to PENDING unless they are already registered or in flight
+     * (see [RegistrationStatus.PRESERVED_ON_REIMPORT]). Returns the number of new rows.
+     */
+    @Transaction
+    suspend fun upsertAll(records: List<RegistrationRecord>): Int {
+        val ids = insertAllIgnoringConflicts(records)
+        var inserted = 0
+        ids.forEachIndexed { index, id ->
+            if (id == -1L) {
+                val record = records[index]
+                refreshForReimport(record.phoneNumber, record.pukLastFour, record.fullName, record.cne)
+            } else {
+                inserted++
+            }
+        }
+        return inserted
+    }
+    
+    @Query("SELECT id FROM registration_records WHERE status = :pending ORDER BY id ASC LIMIT 1")
+    suspend fun getNextPendingId(pending: RegistrationStatus = RegistrationStatus.PENDING): Long?
+    
+    @Query("""
+        UPDATE registration_records
+        SET status = :inProgress, ownerId = :workerId, leaseExpiresAt = :leaseExpiresAt
+        WHERE id = :id AND status = :pending
+    """)
+    suspend fun markClaimed(
+        id: Long,
+        workerId: String,
+        leaseExpiresAt: Long,
+        pending: RegistrationStatus = RegistrationStatus.PENDING,
+        inProgress: RegistrationStatus = RegistrationStatus.IN_PROGRESS
+    ): Int
+    
+    /**
+     * Atomically move the oldest PENDING record to IN_PROGRESS, owned by [workerId] until
+     * [leaseMs] from now. Returns null when the queue is empty. The status check in the UPDATE
+     * keeps two workers from ever claiming the same row.
+     */
+    @Transaction
+    suspend fun claimNext(
+        workerId: String,
+        leaseMs: Long,
+        now: Long = System.currentTimeMillis()
+    ): RegistrationRecord? {
+        val id = getNextPendingId() ?: return null
+        if (markClaimed(id, workerId, now + leaseMs) == 0) return null
+        return getRecordById(id)
+    }
+    
+    /**
+     * Extend the lease while the owner is still working on the record; returns 0 if it was lost
+     */
+    @Query("UPDATE registration_records SET leaseExpiresAt = :leaseExpiresAt WHERE id = :id AND ownerId = :workerId")
+    suspend fun renewLease(id: Long, workerId: String, leaseExpiresAt: Long): Int
+    
+    @Query("UPDATE registration_records SET ownerId = NULL, leaseExpiresAt = 0 WHERE id = :id AND ownerId = :workerId")
+    suspend fun releaseLease(id: Long, workerId: String)
+    
+    /**
+     * Return in-flight records whose lease has run out (their worker crashed or was killed)
+     * to PENDING. Returns the number of records put back in the queue.
+     */
+    @Query("""
+        UPDATE registration_records
+        SET status = :pending, ownerId = NULL, leaseExpiresAt = 0,
+            ussdExecuted = 0, nameFilled = 0, cneFilled = 0
+        WHERE status IN (:inFlight) AND leaseExpiresAt < :now
+    """)
+    suspend fun reapExpiredLeases(
+        now: Long = System.currentTimeMillis(),
+        pending: RegistrationStatus = RegistrationStatus.PENDING,
+        inFlight: List<RegistrationStatus> = RegistrationStatus.IN_FLIGHT
+    ): Int
+    
     @Update
     suspend fun update(record: RegistrationRecord)
     
@@ -35,6 +130,36 @@ interface RegistrationDao {
     @Query("SELECT * FROM registration_records WHERE status = :status ORDER BY id ASC LIMIT 1")
     suspend fun getNextPendingRecord(status: RegistrationStatus = RegistrationStatus.PENDING): RegistrationRecord?
     
+    /**
+     * Compare-and-set state change: moves the record to [to], sets the step [flags]
+     * (RegistrationRecord.FLAG_*) and the message (kept if null) in one statement, but only if
+     * its current status is in [from]. Returns 1 on success, 0 if the record had moved on.
+     */
+    @Query("""
+        UPDATE registration_records
+        SET status = :to,
+            ussdExecuted = (ussdExecuted OR (:flags & ${RegistrationRecord.FLAG_USSD_EXECUTED}) != 0),
+            nameFilled = (nameFilled OR (:flags & ${RegistrationRecord.FLAG_NAME_FILLED}) != 0),
+            cneFilled = (cneFilled OR (:flags & ${RegistrationRecord.FLAG_CNE_FILLED}) != 0),
+            completed = (completed OR (:flags & ${RegistrationRecord.FLAG_COMPLETED}) != 0),
+            errorMessage = COALESCE(:message, errorMessage)
+        WHERE id = :id AND status IN (:from)
+    """)
+    suspend fun transition(
+        id: Long,
+        from: List<RegistrationStatus>,
+        to: RegistrationStatus,
+        flags: Int = 0,
+        message: String? = null
+    ): Int
+    
+    /**
+     * [transition] from the allowed predecessors of [to]; returns false if the move was refused
+     */
+    suspend fun transition(id: Long, to: RegistrationStatus, flags: Int = 0, message: String? = null): Boolean {
+        return transition(id, RegistrationStatus.predecessorsOf(to), to, flags, message) == 1
+    }
+    
     @Query("UPDATE registration_records SET status = :status WHERE id = :id")
     suspend fun updateStatus(id: Long, status: RegistrationStatus)
     
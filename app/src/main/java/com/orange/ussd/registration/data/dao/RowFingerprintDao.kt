@@ -0,0 +1,23 @@
+package com.orange.ussd.registration.data.dao
+
+import androidx.room.*
+import com.orange.ussd.registration.data.model.RowFingerprint
+
+@Dao
+interface RowFingerprintDao {
+    
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    suspend fun insertAll(fingerprints: List<RowFingerprint>)
+    
+    /**
+     * One page of fingerprints in key order, for loading the whole set without one huge cursor window
+     */
+    @Query("SELECT fingerprint FROM row_fingerprints WHERE fingerprint > :after ORDER BY fingerprint LIMIT :limit")
+    suspend fun getPage(after: Long, limit: Int): List<Long>
+    
+    @Query("SELECT COUNT(*) FROM row_fingerprints")
+    suspend fun getCount(): Int
+    
+    @Query("DELETE FROM row_fingerprints")
+    suspend fun deleteAll()
+}
@@ -0,0 +1,37 @@
+package com.orange.ussd.registration.data.dao
+
+import android.database.Cursor
+import androidx.paging.PagingSource
+import androidx.room.*
+import com.orange.ussd.registration.data.model.ReasonCount
+import com.orange.ussd.registration.data.model.SkippedRow
+
+@Dao
+interface SkippedRowDao {
+    
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    suspend fun insertAll(rows: List<SkippedRow>)
+    
+    @Query("SELECT * FROM skipped_records WHERE jobId IN (:jobIds) ORDER BY id ASC")
+    fun pagingSource(jobIds: List<Long>): PagingSource<Int, SkippedRow>
+    
+    /**
+     * Counts per failure combination; there are only a handful, so splitting them into
+     * per-reason totals is left to the caller
+     */
+    @Query("""
+        SELECT reasonMask, COUNT(*) AS count FROM skipped_records
+        WHERE jobId IN (:jobIds)
+        GROUP BY reasonMask
+    """)
+    suspend fun getReasonCounts(jobIds: List<Long>): List<ReasonCount>
+    
+    /**
+     * Blocking cursor over the rows of [jobIds], for streaming exports without loading them
+     */
+    @Query("SELECT * FROM skipped_records WHERE jobId IN (:jobIds) ORDER BY id ASC")
+    fun cursorFor(jobIds: List<Long>): Cursor
+    
+    @Query("DELETE FROM skipped_records")
+    suspend fun deleteAll()
+}
@@ -5,19 +5,31 @@ import androidx.room.Database
 import androidx.room.Room
 import androidx.room.RoomDatabase
 import androidx.room.TypeConverters
+import com.orange.ussd.registration.data.dao.ImportJobDao
 import com.orange.ussd.registration.data.dao.RegistrationDao
+import com.orange.ussd.registration.data.dao.RowFingerprintDao
+import com.orange.ussd.registration.data.dao.SkippedRowDao
+import com.orange.ussd.registration.data.model.ImportJob
 import com.orange.ussd.registration.data.model.RegistrationRecord
+import com.orange.ussd.registration.data.model.RowFingerprint
+import com.orange.ussd.registration.data.model.SkippedRow
 
 @Database(
-    entities = [RegistrationRecord::class],
-    version = 1,
-    exportSchema = false
+    entities = [RegistrationRecord::class, ImportJob::class, RowFingerprint::class, SkippedRow::class],
+    version = 7,
+    exportSchema = true
 )
 @TypeConverters(Converters::class)
 abstract class AppDatabase : RoomDatabase() {
     
     abstract fun registrationDao(): RegistrationDao
     
+    abstract fun importJobDao(): ImportJobDao
+    
+    abstract fun rowFingerprintDao(): RowFingerprintDao
+    
+    abstract fun skippedRowDao(): SkippedRowDao
+    
     companion object {
         @Volatile
         private var INSTANCE: AppDatabase? = null
@@ -29,7 +41,7 @@ abstract class AppDatabase : RoomDatabase() {
                     AppDatabase::class.java,
                     "ussd_registration_database"
                 )
-                    .fallbackToDestructiveMigration()
+                    .addMigrations(*Migrations.ALL)
                     .build()
                 INSTANCE = instance
                 instance
@@ -1,6 +1,7 @@
 package com.orange.ussd.registration.data.database
 
 import androidx.room.TypeConverter
+import com.orange.ussd.registration.data.model.ImportJobStatus
 import com.orange.ussd.registration.data.model.RegistrationStatus
 
 class Converters {
@@ -18,4 +19,18 @@ class Converters {
             RegistrationStatus.PENDING
         }
     }
+    
+    @TypeConverter
+    fun fromImportJobStatus(value: ImportJobStatus): String {
+        return value.name
+    }
+    
+    @TypeConverter
+    fun toImportJobStatus(value: String): ImportJobStatus {
+        return try {
+            ImportJobStatus.valueOf(value)
+        } catch (e: IllegalArgumentException) {
+            ImportJobStatus.FAILED
+        }
+    }
 }
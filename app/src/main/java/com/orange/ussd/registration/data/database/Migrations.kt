@@ -0,0 +1,107 @@
+package com.orange.ussd.registration.data.database
+
+import androidx.room.migration.Migration
+import androidx.sqlite.db.SupportSQLiteDatabase
+
+/**
+ * Schema migrations. Every version bump must add a step here (and keep the exported schema
+ * under app/schemas in sync) so an upgrade never drops the work queue.
+ */
+object Migrations {
+
+    /**
+     * One row per phone number. Duplicates are collapsed first, keeping a registered row over
+     * the others and otherwise the most recently imported one.
+     */
+    val MIGRATION_1_2 = object : Migration(1, 2) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS `tmp_registration_records_phoneNumber` ON `registration_records` (`phoneNumber`)")
+            db.execSQL("""
+                DELETE FROM `registration_records` WHERE `id` <> (
+                    SELECT `other`.`id` FROM `registration_records` AS `other`
+                    WHERE `other`.`phoneNumber` = `registration_records`.`phoneNumber`
+                    ORDER BY `other`.`status` IN ('COMPLETED', 'ALREADY_REGISTERED') DESC, `other`.`id` DESC
+                    LIMIT 1
+                )
+            """.trimIndent())
+            db.execSQL("DROP INDEX IF EXISTS `tmp_registration_records_phoneNumber`")
+            db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_registration_records_phoneNumber` ON `registration_records` (`phoneNumber`)")
+        }
+    }
+
+    /** Import jobs with their resume checkpoint */
+    val MIGRATION_2_3 = object : Migration(2, 3) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            db.execSQL("""
+                CREATE TABLE IF NOT EXISTS `import_jobs` (
+                    `id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL,
+                    `sourceUri` TEXT NOT NULL,
+                    `displayName` TEXT NOT NULL,
+                    `fileSize` INTEGER NOT NULL,
+                    `headHash` TEXT NOT NULL,
+                    `status` TEXT NOT NULL,
+                    `committedLine` INTEGER NOT NULL,
+                    `committedOffset` INTEGER NOT NULL,
+                    `committedSheet` TEXT,
+                    `rowsInserted` INTEGER NOT NULL,
+                    `createdAt` INTEGER NOT NULL,
+                    `updatedAt` INTEGER NOT NULL
+                )
+            """.trimIndent())
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_import_jobs_sourceUri` ON `import_jobs` (`sourceUri`)")
+        }
+    }
+
+    /** Whole-file hash on jobs and per-row fingerprints for incremental imports */
+    val MIGRATION_3_4 = object : Migration(3, 4) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            db.execSQL("ALTER TABLE `import_jobs` ADD COLUMN `contentHash` TEXT")
+            db.execSQL("CREATE TABLE IF NOT EXISTS `row_fingerprints` (`fingerprint` INTEGER NOT NULL, PRIMARY KEY(`fingerprint`))")
+        }
+    }
+
+    /** Skipped rows stored per import job */
+    val MIGRATION_4_5 = object : Migration(4, 5) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            db.execSQL("""
+                CREATE TABLE IF NOT EXISTS `skipped_records` (
+                    `id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL,
+                    `jobId` INTEGER NOT NULL,
+                    `sheetName` TEXT NOT NULL,
+                    `lineNumber` INTEGER NOT NULL,
+                    `phoneNumber` TEXT NOT NULL,
+                    `pukLastFour` TEXT NOT NULL,
+                    `fullName` TEXT NOT NULL,
+                    `cne` TEXT NOT NULL,
+                    `reasonMask` INTEGER NOT NULL
+                )
+            """.trimIndent())
+            db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_skipped_records_jobId_sheetName_lineNumber` ON `skipped_records` (`jobId`, `sheetName`, `lineNumber`)")
+        }
+    }
+
+    /** Indexes for the queue queries: next pending by (status, id), and the list by timestamp */
+    val MIGRATION_5_6 = object : Migration(5, 6) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_registration_records_status_id` ON `registration_records` (`status`, `id`)")
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_registration_records_timestamp` ON `registration_records` (`timestamp`)")
+        }
+    }
+
+    /** Worker leases for claiming records */
+    val MIGRATION_6_7 = object : Migration(6, 7) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            db.execSQL("ALTER TABLE `registration_records` ADD COLUMN `ownerId` TEXT")
+            db.execSQL("ALTER TABLE `registration_records` ADD COLUMN `leaseExpiresAt` INTEGER NOT NULL DEFAULT 0")
+        }
+    }
+
+    val ALL: Array<Migration> = arrayOf(
+        MIGRATION_1_2,
+        MIGRATION_2_3,
+        MIGRATION_3_4,
+        MIGRATION_4_5,
+        MIGRATION_5_6,
+        MIGRATION_6_7
+    )
+}
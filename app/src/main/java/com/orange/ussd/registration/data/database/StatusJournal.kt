@@ -0,0 +1,210 @@
+package com.orange.ussd.registration.data.database
+
+import android.content.Context
+import android.util.Log
+import androidx.room.withTransaction
+import androidx.sqlite.db.SimpleSQLiteQuery
+import com.orange.ussd.registration.data.model.RegistrationRecord
+import com.orange.ussd.registration.data.model.RegistrationStatus
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.selects.onTimeout
+import kotlinx.coroutines.selects.select
+
+/**
+ * Write-behind journal for record status changes.
+ * Callers append transitions without waiting; one coroutine on a single-threaded DB dispatcher
+ * drains them in order and commits up to [maxBatch] entries per transaction, at most
+ * [commitIntervalMs] after the first of them was appended. Observers of the table are
+ * invalidated once per batch instead of once per write.
+ * Until an entry is committed, [getRecord] overlays it on the stored row (read-your-writes).
+ */
+class StatusJournal private constructor(
+    private val database: AppDatabase,
+    private val maxBatch: Int = DEFAULT_MAX_BATCH,
+    private val commitIntervalMs: Long = DEFAULT_COMMIT_INTERVAL_MS
+) {
+
+    private sealed class Entry {
+        class Transition(
+            val sequence: Long,
+            val id: Long,
+            val to: RegistrationStatus,
+            val flags: Int,
+            val message: String?
+        ) : Entry()
+
+        class Barrier(val committed: CompletableDeferred<Unit>) : Entry()
+    }
+
+    /** Expected state of a record once its pending entries are committed */
+    private class Overlay(
+        val sequence: Long,
+        val status: RegistrationStatus,
+        val flags: Int,
+        val message: String?
+    )
+
+    @OptIn(ExperimentalCoroutinesApi::class)
+    private val dbDispatcher = Dispatchers.IO.limitedParallelism(1)
+    private val scope = CoroutineScope(dbDispatcher + SupervisorJob())
+    private val queue = Channel<Entry>(Channel.UNLIMITED)
+
+    // Guarded by lock, together with the sequence so entries are queued in sequence order
+    private val lock = Any()
+    private val overlays = HashMap<Long, Overlay>()
+    private var lastSequence = 0L
+
+    init {
+        scope.launch { drain() }
+    }
+
+    /**
+     * Queue a [RegistrationDao.transition][com.orange.ussd.registration.data.dao.RegistrationDao.transition]
+     * of record [id] to [to]. Never blocks; the move is still refused at commit time if the
+     * record is no longer in one of the predecessors of [to].
+     */
+    fun append(id: Long, to: RegistrationStatus, flags: Int = 0, message: String? = null) {
+        synchronized(lock) {
+            val sequence = ++lastSequence
+            val current = overlays[id]
+            // Same rule as the UPDATE, so the overlay does not promise a move the commit will refuse
+            if (current == null || current.status in RegistrationStatus.predecessorsOf(to)) {
+                overlays[id] = Overlay(
+                    sequence,
+                    to,
+                    (current?.flags ?: 0) or flags,
+                    message ?: current?.message
+                )
+            }
+            queue.trySend(Entry.Transition(sequence, id, to, flags, message))
+        }
+    }
+
+    /**
+     * Suspend until everything appended before this call is committed
+     */
+    suspend fun flush() {
+        val committed = CompletableDeferred<Unit>()
+        queue.send(Entry.Barrier(committed))
+        committed.await()
+    }
+
+    /**
+     * [flush], then checkpoint the WAL into the database file. In WAL mode a commit is only
+     * synced to disk at the next checkpoint, so this is what makes the writes survive a power
+     * loss and not just the process dying. Used when processing stops.
+     * Runs in the journal's own scope, so it completes even if the caller is being torn down;
+     * join the returned job to wait for it.
+     */
+    fun sync(): Job = scope.launch {
+        flush()
+        try {
+            database.query(SimpleSQLiteQuery("PRAGMA wal_checkpoint(FULL)")).close()
+        } catch (e: Exception) {
+            Log.e(TAG, "WAL checkpoint failed: ${e.message}")
+        }
+    }
+
+    /**
+     * The stored record with any still pending transitions applied
+     */
+    suspend fun getRecord(id: Long): RegistrationRecord? {
+        // Read the overlay first: if the commit lands in between, the stored row already has it
+        val overlay = synchronized(lock) { overlays[id] }
+        val record = database.registrationDao().getRecordById(id) ?: return null
+        if (overlay == null) return record
+        return record.copy(
+            status = overlay.status,
+            errorMessage = overlay.message ?: record.errorMessage,
+            ussdExecuted = record.ussdExecuted || overlay.flags and RegistrationRecord.FLAG_USSD_EXECUTED != 0,
+            nameFilled = record.nameFilled || overlay.flags and RegistrationRecord.FLAG_NAME_FILLED != 0,
+            cneFilled = record.cneFilled || overlay.flags and RegistrationRecord.FLAG_CNE_FILLED != 0,
+            completed = record.completed || overlay.flags and RegistrationRecord.FLAG_COMPLETED != 0
+        )
+    }
+
+    private suspend fun drain() {
+        val batch = ArrayList<Entry.Transition>(maxBatch)
+        while (true) {
+            var barrier: Entry.Barrier? = null
+            when (val first = queue.receive()) {
+                is Entry.Barrier -> barrier = first
+                is Entry.Transition -> batch.add(first)
+            }
+
+            // Gather more entries until the batch is full, the interval is up or someone flushes
+            val deadline = System.nanoTime() + commitIntervalMs * 1_000_000
+            while (barrier == null && batch.size < maxBatch) {
+                val next = queue.tryReceive().getOrNull() ?: run {
+                    val remainingMs = (deadline - System.nanoTime()) / 1_000_000
+                    if (remainingMs > 0) receiveWithin(remainingMs) else null
+                } ?: break
+                when (next) {
+                    is Entry.Barrier -> barrier = next
+                    is Entry.Transition -> batch.add(next)
+                }
+            }
+
+            if (batch.isNotEmpty()) {
+                commit(batch)
+                batch.clear()
+            }
+            barrier?.committed?.complete(Unit)
+        }
+    }
+
+    // select, unlike withTimeout around receive, never drops an entry when the timeout races it
+    @OptIn(ExperimentalCoroutinesApi::class)
+    private suspend fun receiveWithin(timeoutMs: Long): Entry? = select {
+        queue.onReceive { it }
+        onTimeout(timeoutMs) { null }
+    }
+
+    private suspend fun commit(batch: List<Entry.Transition>) {
+        try {
+            database.withTransaction {
+                val dao = database.registrationDao()
+                for (entry in batch) {
+                    dao.transition(entry.id, entry.to, entry.flags, entry.message)
+                }
+            }
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to commit ${batch.size} status changes: ${e.message}")
+        }
+
+        // Committed (or lost): from here on the stored row is the truth
+        val committedUpTo = batch.last().sequence
+        synchronized(lock) {
+            val iterator = overlays.values.iterator()
+            while (iterator.hasNext()) {
+                if (iterator.next().sequence <= committedUpTo) iterator.remove()
+            }
+        }
+    }
+
+    companion object {
+        private const val TAG = "StatusJournal"
+        private const val DEFAULT_MAX_BATCH = 64
+        private const val DEFAULT_COMMIT_INTERVAL_MS = 100L
+
+        @Volatile
+        private var INSTANCE: StatusJournal? = null
+
+        /**
+         * The process-wide journal. Both services write through the same instance so their
+         * entries are committed in the order they happened.
+         */
+        fun getInstance(context: Context): StatusJournal {
+            return INSTANCE ?: synchronized(this) {
+                INSTANCE ?: StatusJournal(AppDatabase.getDatabase(context)).also { INSTANCE = it }
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.orange.ussd.registration.data.model
+
+import androidx.room.Entity
+import androidx.room.Index
+import androidx.room.PrimaryKey
+
+/**
+ * One file import. [contentHash] is the SHA-256 of the whole file; a new import of a file whose
+ * size and content hash match a COMPLETED job is skipped. The checkpoint ([committedLine], [committedOffset], [committedSheet]) is
+ * the last row whose record was committed, and is written in the same transaction as that
+ * record, so an interrupted import can continue right after it.
+ */
+@Entity(
+    tableName = "import_jobs",
+    indices = [Index(value = ["sourceUri"])]
+)
+data class ImportJob(
+    @PrimaryKey(autoGenerate = true)
+    val id: Long = 0,
+    val sourceUri: String,
+    val displayName: String,
+    val fileSize: Long,
+    val headHash: String,
+    val contentHash: String? = null,
+    val status: ImportJobStatus = ImportJobStatus.RUNNING,
+    val committedLine: Int = 0,
+    val committedOffset: Long = -1,
+    val committedSheet: String? = null,
+    val rowsInserted: Int = 0,
+    val createdAt: Long = System.currentTimeMillis(),
+    val updatedAt: Long = createdAt
+) {
+    val hasCheckpoint: Boolean
+        get() = committedLine > 0
+}
+
+enum class ImportJobStatus {
+    RUNNING,
+    PAUSED,
+    COMPLETED,
+    FAILED,
+    DISCARDED;
+
+    companion object {
+        /** Jobs that can still be resumed; RUNNING means the process died mid-import */
+        val RESUMABLE = listOf(RUNNING, PAUSED)
+    }
+}
@@ -1,9 +1,22 @@
 package com.orange.ussd.registration.data.model
 
+import androidx.room.ColumnInfo
 import androidx.room.Entity
+import androidx.room.Index
 import androidx.room.PrimaryKey
 
-@Entity(tableName = "registration_records")
+/**
+ * One number to register. While a worker processes it, [ownerId] names the worker and
+ * [leaseExpiresAt] bounds how long the claim holds without being renewed.
+ */
+@Entity(
+    tableName = "registration_records",
+    indices = [
+        Index(value = ["status", "id"]),
+        Index(value = ["phoneNumber"], unique = true),
+        Index(value = ["timestamp"])
+    ]
+)
 data class RegistrationRecord(
     @PrimaryKey(autoGenerate = true)
     val id: Long = 0,
@@ -17,8 +30,19 @@ data class RegistrationRecord(
     val ussdExecuted: Boolean = false,
     val nameFilled: Boolean = false,
     val cneFilled: Boolean = false,
-    val completed: Boolean = false
-)
+    val completed: Boolean = false,
+    val ownerId: String? = null,
+    @ColumnInfo(defaultValue = "0")
+    val leaseExpiresAt: Long = 0
+) {
+    companion object {
+        // Step flags for RegistrationDao.transition, set together with the status change
+        const val FLAG_USSD_EXECUTED = 1
+        const val FLAG_NAME_FILLED = 1 shl 1
+        const val FLAG_CNE_FILLED = 1 shl 2
+        const val FLAG_COMPLETED = 1 shl 3
+    }
+}
 
 enum class RegistrationStatus {
     PENDING,
@@ -29,5 +53,39 @@ enum class RegistrationStatus {
     COMPLETED,
     ALREADY_REGISTERED,
     FAILED,
-    CANCELLED
+    CANCELLED;
+
+    companion object {
+        /**
+         * Claimed by a worker and not finished yet
+         */
+        val IN_FLIGHT = listOf(IN_PROGRESS, USSD_SENT, NAME_FILLED, CNE_FILLED)
+
+        /**
+         * Statuses a record may move to [to] from. Outcomes (COMPLETED, ALREADY_REGISTERED,
+         * FAILED, CANCELLED) are only reachable from in-flight states, so the first outcome
+         * written wins and later writers cannot overwrite it.
+         */
+        fun predecessorsOf(to: RegistrationStatus): List<RegistrationStatus> = when (to) {
+            PENDING -> listOf(FAILED, CANCELLED)
+            IN_PROGRESS -> listOf(PENDING)
+            USSD_SENT -> listOf(IN_PROGRESS)
+            NAME_FILLED -> listOf(IN_PROGRESS, USSD_SENT)
+            CNE_FILLED -> listOf(IN_PROGRESS, USSD_SENT, NAME_FILLED)
+            COMPLETED, ALREADY_REGISTERED, FAILED -> IN_FLIGHT
+            CANCELLED -> listOf(PENDING) + IN_FLIGHT
+        }
+
+        /**
+         * Rows in these states keep their status when the same phone number is imported again
+         */
+        val PRESERVED_ON_REIMPORT = listOf(
+            IN_PROGRESS,
+            USSD_SENT,
+            NAME_FILLED,
+            CNE_FILLED,
+            COMPLETED,
+            ALREADY_REGISTERED
+        )
+    }
 }
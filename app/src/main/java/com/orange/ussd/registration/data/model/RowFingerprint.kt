@@ -0,0 +1,14 @@
+package com.orange.ussd.registration.data.model
+
+import androidx.room.Entity
+import androidx.room.PrimaryKey
+
+/**
+ * 64-bit fingerprint of an imported row's fields (see [com.orange.ussd.registration.utils.Fingerprint]).
+ * Rows whose fingerprint is already stored are unchanged and are not written again.
+ */
+@Entity(tableName = "row_fingerprints")
+data class RowFingerprint(
+    @PrimaryKey
+    val fingerprint: Long
+)
@@ -0,0 +1,36 @@
+package com.orange.ussd.registration.data.model
+
+import androidx.room.Entity
+import androidx.room.Index
+import androidx.room.PrimaryKey
+
+/**
+ * A row rejected during an import, kept for review and export.
+ * [reasonMask] holds the [com.orange.ussd.registration.utils.RecordValidator] failure bits.
+ * [sheetName] is empty for CSV files; together with [jobId] and [lineNumber] it identifies
+ * the row, so re-reading part of a file after a resume does not store it twice.
+ */
+@Entity(
+    tableName = "skipped_records",
+    indices = [Index(value = ["jobId", "sheetName", "lineNumber"], unique = true)]
+)
+data class SkippedRow(
+    @PrimaryKey(autoGenerate = true)
+    val id: Long = 0,
+    val jobId: Long,
+    val sheetName: String = "",
+    val lineNumber: Int,
+    val phoneNumber: String,
+    val pukLastFour: String,
+    val fullName: String,
+    val cne: String,
+    val reasonMask: Int
+)
+
+/**
+ * Number of skipped rows sharing one exact combination of failure bits
+ */
+data class ReasonCount(
+    val reasonMask: Int,
+    val count: Int
+)
@@ -16,6 +16,7 @@ import android.util.Log
 import android.view.accessibility.AccessibilityEvent
 import android.view.accessibility.AccessibilityNodeInfo
 import com.orange.ussd.registration.data.database.AppDatabase
+import com.orange.ussd.registration.data.model.RegistrationRecord
 import com.orange.ussd.registration.data.model.RegistrationStatus
 import kotlinx.coroutines.*
 
@@ -229,8 +230,11 @@ class USSDAccessibilityService : AccessibilityService() {
                                     // Update database async
                                     launch(Dispatchers.IO) {
                                         try {
-                                            database.registrationDao().updateStatus(recordId, RegistrationStatus.NAME_FILLED)
-                                            database.registrationDao().updateNameFilled(recordId, true)
+                                            database.registrationDao().transition(
+                                                recordId,
+                                                RegistrationStatus.NAME_FILLED,
+                                                RegistrationRecord.FLAG_NAME_FILLED
+                                            )
                                         } catch (e: Exception) {
                                             Log.e(TAG, "DB error: ${e.message}")
                                         }
@@ -305,8 +309,11 @@ class USSDAccessibilityService : AccessibilityService() {
                                     // Update database async
                                     launch(Dispatchers.IO) {
                                         try {
-                                            database.registrationDao().updateStatus(recordId, RegistrationStatus.CNE_FILLED)
-                                            database.registrationDao().updateCneFilled(recordId, true)
+                                            database.registrationDao().transition(
+                                                recordId,
+                                                RegistrationStatus.CNE_FILLED,
+                                                RegistrationRecord.FLAG_CNE_FILLED
+                                            )
                                         } catch (e: Exception) {
                                             Log.e(TAG, "DB error: ${e.message}")
                                         }
@@ -370,8 +377,11 @@ class USSDAccessibilityService : AccessibilityService() {
                                     
                                     launch(Dispatchers.IO) {
                                         try {
-                                            database.registrationDao().updateStatus(recordId, RegistrationStatus.CNE_FILLED)
-                                            database.registrationDao().updateCneFilled(recordId, true)
+                                            database.registrationDao().transition(
+                                                recordId,
+                                                RegistrationStatus.CNE_FILLED,
+                                                RegistrationRecord.FLAG_CNE_FILLED
+                                            )
                                         } catch (e: Exception) {}
                                     }
                                     
@@ -395,10 +405,10 @@ class USSDAccessibilityService : AccessibilityService() {
                 val responseMessage = dialogText.take(200)
                 serviceScope.launch {
                     try {
-                        database.registrationDao().updateStatusWithError(
+                        database.registrationDao().transition(
                             recordId,
                             RegistrationStatus.ALREADY_REGISTERED,
-                            "Already registered: $responseMessage"
+                            message = "Already registered: $responseMessage"
                         )
                     } catch (e: Exception) {
                         Log.e(TAG, "DB error: ${e.message}")
@@ -435,9 +445,10 @@ class USSDAccessibilityService : AccessibilityService() {
                     val responseMessage = dialogText.take(200)
                     serviceScope.launch {
                         try {
-                            database.registrationDao().updateStatusWithError(
+                            database.registrationDao().transition(
                                 recordId,
                                 RegistrationStatus.COMPLETED,
+                                RegistrationRecord.FLAG_COMPLETED,
                                 "Success: $responseMessage"
                             )
                         } catch (e: Exception) {
@@ -492,9 +503,10 @@ class USSDAccessibilityService : AccessibilityService() {
                     val responseMessage = dialogText.take(200)
                     serviceScope.launch {
                         try {
-                            database.registrationDao().updateStatusWithError(
+                            database.registrationDao().transition(
                                 recordId,
                                 RegistrationStatus.COMPLETED,
+                                RegistrationRecord.FLAG_COMPLETED,
                                 "Completed: $responseMessage"
                             )
                         } catch (e: Exception) {
@@ -540,10 +552,10 @@ class USSDAccessibilityService : AccessibilityService() {
                 val errorMessage = dialogText.take(200)
                 serviceScope.launch {
                     try {
-                        database.registrationDao().updateStatusWithError(
+                        database.registrationDao().transition(
                             recordId,
                             RegistrationStatus.FAILED,
-                            "Error: $errorMessage"
+                            message = "Error: $errorMessage"
                         )
                     } catch (e: Exception) {
                         Log.e(TAG, "DB error: ${e.message}")
@@ -9,20 +9,28 @@ import android.os.IBinder
 import androidx.core.app.NotificationCompat
 import com.orange.ussd.registration.R
 import com.orange.ussd.registration.data.database.AppDatabase
+import com.orange.ussd.registration.data.database.StatusJournal
+import com.orange.ussd.registration.data.model.RegistrationRecord
 import com.orange.ussd.registration.data.model.RegistrationStatus
 import com.orange.ussd.registration.ui.MainActivity
 import kotlinx.coroutines.*
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
+import java.util.UUID
 
 class USSDProcessingService : Service() {
 
     private val serviceScope = CoroutineScope(Dispatchers.IO + SupervisorJob())
     private lateinit var database: AppDatabase
+    private lateinit var journal: StatusJournal
     private var isProcessing = false
     private var processingJob: Job? = null
     private val processingMutex = Mutex()
     
+    // Identifies this worker's claims in the queue; a new process never inherits old leases
+    private val workerId = "ussd-${UUID.randomUUID()}"
+    private var leaseRenewedAt = 0L
+    
     companion object {
         const val NOTIFICATION_ID = 1001
         const val CHANNEL_ID = "ussd_processing_channel"
@@ -34,11 +42,17 @@ class USSDProcessingService : Service() {
         @Volatile var expectedFullName: String? = null
         @Volatile var expectedCNE: String? = null
         @Volatile var isCurrentlyProcessing = false
+        
+        // A claim lasts this long unless renewed; the wait loop renews it while the dialog runs
+        private const val LEASE_MS = 60_000L
+        private const val LEASE_RENEW_INTERVAL_MS = LEASE_MS / 3
+        private const val REAP_INTERVAL_MS = 30_000L
     }
 
     override fun onCreate() {
         super.onCreate()
         database = AppDatabase.getDatabase(this)
+        journal = StatusJournal.getInstance(this)
         createNotificationChannel()
     }
 
@@ -64,28 +78,37 @@ class USSDProcessingService : Service() {
         processingJob?.cancel()
         
         isProcessing = true
+        serviceScope.launch {
+            reapExpiredLeases()
+        }
         processingJob = serviceScope.launch {
             processNextRecord()
         }
     }
 
+    /**
+     * Put records claimed by a worker that died back in the queue, now and then periodically
+     */
+    private suspend fun reapExpiredLeases() {
+        while (isProcessing) {
+            try {
+                database.registrationDao().reapExpiredLeases()
+            } catch (e: Exception) {
+                // Try again on the next round
+            }
+            delay(REAP_INTERVAL_MS)
+        }
+    }
+
     private fun stopProcessing() {
         isProcessing = false
         
         // Mark current record as cancelled if exists
         currentRecordId?.let { recordId ->
-            serviceScope.launch {
-                try {
-                    database.registrationDao().updateStatusWithError(
-                        recordId,
-                        RegistrationStatus.CANCELLED,
-                        "Stopped by user"
-                    )
-                } catch (e: Exception) {
-                    // Ignore errors during cancellation
-                }
-            }
+            journal.append(recordId, RegistrationStatus.CANCELLED, message = "Stopped by user")
         }
+        // Commit and sync whatever is still queued; runs on even after this service is gone
+        journal.sync()
         
         // Clear shared state
         currentRecordId = null
@@ -118,7 +141,8 @@ class USSDProcessingService : Service() {
             }
             
             try {
-                val record = database.registrationDao().getNextPendingRecord()
+                // Claim the next PENDING record (IN_PROGRESS + lease) in one transaction
+                val record = database.registrationDao().claimNext(workerId, LEASE_MS)
                 
                 if (record == null) {
                     // No more records to process
@@ -128,8 +152,7 @@ class USSDProcessingService : Service() {
                     return
                 }
                 
-                // Update status to IN_PROGRESS
-                database.registrationDao().updateStatus(record.id, RegistrationStatus.IN_PROGRESS)
+                leaseRenewedAt = System.currentTimeMillis()
                 currentRecordId = record.id
                 expectedFullName = record.fullName
                 expectedCNE = record.cne
@@ -144,19 +167,25 @@ class USSDProcessingService : Service() {
                 val success = executeUSSD(ussdCode)
                 
                 if (success) {
-                    database.registrationDao().updateStatus(record.id, RegistrationStatus.USSD_SENT)
-                    database.registrationDao().updateUssdExecuted(record.id, true)
+                    journal.append(
+                        record.id,
+                        RegistrationStatus.USSD_SENT,
+                        RegistrationRecord.FLAG_USSD_EXECUTED
+                    )
                     
                     // Wait for accessibility service to handle the prompts
                     // The accessibility service will update the status
                     waitForCompletion(record.id)
                 } else {
-                    database.registrationDao().updateStatusWithError(
+                    journal.append(
                         record.id,
                         RegistrationStatus.FAILED,
-                        "Failed to execute USSD code"
+                        message = "Failed to execute USSD code"
                     )
                 }
+                // The outcome must be stored before the lease goes, or the reaper could requeue the record
+                journal.flush()
+                database.registrationDao().releaseLease(record.id, workerId)
                 
                 // Clear shared state after processing
                 currentRecordId = null
@@ -192,7 +221,9 @@ class USSDProcessingService : Service() {
                 return
             }
             
-            val record = database.registrationDao().getRecordById(recordId)
+            renewLeaseIfDue(recordId)
+            
+            val record = journal.getRecord(recordId)
             
             // If completed, already registered, failed, or cancelled - we're done
             if (record?.status == RegistrationStatus.COMPLETED || 
@@ -209,18 +240,13 @@ class USSDProcessingService : Service() {
             if (record?.nameFilled == true && record.cneFilled == true) {
                 // Wait a bit for potential response dialog
                 delay(3000)
-                // Check status again
-                val updatedRecord = database.registrationDao().getRecordById(recordId)
-                if (updatedRecord?.status != RegistrationStatus.COMPLETED && 
-                    updatedRecord?.status != RegistrationStatus.ALREADY_REGISTERED &&
-                    updatedRecord?.status != RegistrationStatus.FAILED) {
-                    // Mark as completed since both inputs were filled
-                    database.registrationDao().updateStatusWithError(
-                        recordId,
-                        RegistrationStatus.COMPLETED,
-                        "Completed (name and CNE filled)"
-                    )
-                }
+                // Mark as completed since both inputs were filled, unless an outcome was recorded meanwhile
+                journal.append(
+                    recordId,
+                    RegistrationStatus.COMPLETED,
+                    RegistrationRecord.FLAG_COMPLETED,
+                    "Completed (name and CNE filled)"
+                )
                 delay(300)
                 return
             }
@@ -230,9 +256,10 @@ class USSDProcessingService : Service() {
                 statusUnchangedCount++
                 // If stuck for more than 10 checks (5 seconds), force continue
                 if (statusUnchangedCount > 10 && record?.nameFilled == true) {
-                    database.registrationDao().updateStatusWithError(
+                    journal.append(
                         recordId,
                         RegistrationStatus.COMPLETED,
+                        RegistrationRecord.FLAG_COMPLETED,
                         "Completed (forced after name filled, CNE may have failed)"
                     )
                     delay(300)
@@ -247,23 +274,31 @@ class USSDProcessingService : Service() {
         }
         
         // Timeout - check what we accomplished
-        val finalRecord = database.registrationDao().getRecordById(recordId)
+        val finalRecord = journal.getRecord(recordId)
         if (finalRecord?.nameFilled == true) {
             // At least name was filled, mark as completed
-            database.registrationDao().updateStatusWithError(
+            journal.append(
                 recordId,
                 RegistrationStatus.COMPLETED,
+                RegistrationRecord.FLAG_COMPLETED,
                 "Completed (timeout but name was filled)"
             )
         } else {
-            database.registrationDao().updateStatusWithError(
+            journal.append(
                 recordId,
                 RegistrationStatus.FAILED,
-                "Timeout - registration may be incomplete"
+                message = "Timeout - registration may be incomplete"
             )
         }
     }
 
+    private suspend fun renewLeaseIfDue(recordId: Long) {
+        val now = System.currentTimeMillis()
+        if (now - leaseRenewedAt < LEASE_RENEW_INTERVAL_MS) return
+        database.registrationDao().renewLease(recordId, workerId, now + LEASE_MS)
+        leaseRenewedAt = now
+    }
+
     /**
      * Build USSD code in format: #555*1*{phoneNumber}*1*{pukLastFour}#
      */
@@ -334,6 +369,7 @@ class USSDProcessingService : Service() {
         isCurrentlyProcessing = false
         processingJob?.cancel()
         serviceScope.cancel()
+        journal.sync()
         currentRecordId = null
         expectedFullName = null
         expectedCNE = null
@@ -19,15 +19,20 @@ import androidx.core.app.ActivityCompat
 import androidx.core.content.ContextCompat
 import androidx.core.content.FileProvider
 import androidx.lifecycle.lifecycleScope
+import androidx.room.withTransaction
 import androidx.recyclerview.widget.LinearLayoutManager
 import androidx.recyclerview.widget.RecyclerView
 import com.orange.ussd.registration.R
 import com.orange.ussd.registration.data.database.AppDatabase
+import com.orange.ussd.registration.data.model.ImportJobStatus
 import com.orange.ussd.registration.data.model.RegistrationStatus
 import com.orange.ussd.registration.service.USSDProcessingService
 import com.orange.ussd.registration.service.USSDAccessibilityService
-import com.orange.ussd.registration.utils.FileParser
+import com.orange.ussd.registration.utils.ImportPipeline
+import com.orange.ussd.registration.utils.RecordValidator
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import org.apache.poi.ss.usermodel.*
@@ -52,16 +57,26 @@ class MainActivity : AppCompatActivity() {
     private lateinit var progressBar: ProgressBar
     private lateinit var recyclerView: RecyclerView
     
+    private var importJob: Job? = null
+    
     private val filePickerLauncher = registerForActivityResult(
         ActivityResultContracts.GetContent()
     ) { uri: Uri? ->
-        uri?.let { handleSelectedFile(it) }
+        uri?.let { handleSelectedFiles(listOf(it)) }
     }
 
     private val filePickerMultipleTypes = registerForActivityResult(
-        ActivityResultContracts.OpenDocument()
-    ) { uri: Uri? ->
-        uri?.let { handleSelectedFile(it) }
+        ActivityResultContracts.OpenMultipleDocuments()
+    ) { uris: List<Uri> ->
+        uris.forEach { uri ->
+            // Keep read access after a restart so an interrupted import can be resumed
+            try {
+                contentResolver.takePersistableUriPermission(uri, Intent.FLAG_GRANT_READ_URI_PERMISSION)
+            } catch (e: SecurityException) {
+                // Provider does not offer persistable grants; resuming will need the file picked again
+            }
+        }
+        if (uris.isNotEmpty()) handleSelectedFiles(uris)
     }
 
     override fun onCreate(savedInstanceState: Bundle?) {
@@ -74,6 +89,7 @@ class MainActivity : AppCompatActivity() {
         setupRecyclerView()
         checkPermissions()
         observeData()
+        checkResumableImports()
     }
 
     private fun initViews() {
@@ -87,7 +103,9 @@ class MainActivity : AppCompatActivity() {
         progressBar = findViewById(R.id.progressBar)
         recyclerView = findViewById(R.id.recyclerView)
         
-        btnSelectFile.setOnClickListener { selectFile() }
+        btnSelectFile.setOnClickListener {
+            if (importJob?.isActive == true) importJob?.cancel() else selectFile()
+        }
         btnStartProcessing.setOnClickListener { startProcessing() }
         btnStopProcessing.setOnClickListener { stopProcessing() }
         btnClearAll.setOnClickListener { clearAllRecords() }
@@ -183,40 +201,93 @@ class MainActivity : AppCompatActivity() {
         ))
     }
 
-    private fun handleSelectedFile(uri: Uri) {
+    /**
+     * Offer to continue imports that were cancelled or cut off by process death
+     */
+    private fun checkResumableImports() {
+        lifecycleScope.launch {
+            val jobs = withContext(Dispatchers.IO) {
+                database.importJobDao().getResumableJobs()
+            }
+            if (jobs.isEmpty() || importJob?.isActive == true) return@launch
+            
+            val names = jobs.joinToString("\n") { "${it.displayName} (after line ${it.committedLine})" }
+            AlertDialog.Builder(this@MainActivity)
+                .setTitle("Resume Import")
+                .setMessage("${jobs.size} import(s) did not finish:\n\n$names\n\nContinue from where they stopped?")
+                .setPositiveButton("Resume") { _, _ ->
+                    handleSelectedFiles(jobs.map { Uri.parse(it.sourceUri) })
+                }
+                .setNegativeButton("Discard") { _, _ ->
+                    lifecycleScope.launch(Dispatchers.IO) {
+                        database.importJobDao().updateStatus(jobs.map { it.id }, ImportJobStatus.DISCARDED)
+                    }
+                }
+                .show()
+        }
+    }
+
+    private fun handleSelectedFiles(uris: List<Uri>) {
         progressBar.visibility = View.VISIBLE
         tvStatus.text = "Parsing file..."
+        btnSelectFile.text = "Cancel Import"
         
-        lifecycleScope.launch {
+        importJob = lifecycleScope.launch {
             try {
-                val result = FileParser.parseFile(this@MainActivity, uri)
+                var result: ImportPipeline.Progress? = null
                 
-                if (result.errors.isNotEmpty()) {
-                    showErrorDialog("Parsing Errors", result.errors.joinToString("\n"))
+                // Parsing, validation and inserts run off the main thread; only progress lands here
+                ImportPipeline(database).run(this@MainActivity, uris).collect { progress ->
+                    val resumed = if (progress.resumedFiles > 0) "Resuming " else ""
+                    tvStatus.text = "${resumed}Loading... ${progress.inserted} new, ${progress.existing} existing " +
+                        "(${progress.unchanged} unchanged, ${progress.skipped} skipped, " +
+                        "${progress.duplicates} duplicates, " +
+                        "${progress.rowsPerSecond.toInt()} rows/s)"
+                    if (progress.isComplete) result = progress
                 }
                 
-                if (result.records.isNotEmpty()) {
-                    database.registrationDao().insertAll(result.records)
-                    tvStatus.text = "Loaded ${result.records.size} records"
+                val errors = result?.errors.orEmpty()
+                val skippedCount = result?.skipped ?: 0
+                val loaded = result?.inserted ?: 0
+                val existing = result?.existing ?: 0
+                val sources = result?.sources.orEmpty()
+                
+                if (errors.isNotEmpty()) {
+                    showErrorDialog("Parsing Errors", errors.joinToString("\n"))
+                }
+                
+                if (sources.size > 1) {
+                    showImportSummaryDialog(sources)
+                }
+                
+                if (loaded > 0 || existing > 0) {
+                    tvStatus.text = "Loaded $loaded new records ($existing already in queue)"
                     Toast.makeText(
                         this@MainActivity,
-                        "${result.records.size} records loaded successfully",
+                        "$loaded records loaded successfully",
                         Toast.LENGTH_SHORT
                     ).show()
+                } else if ((result?.unchanged ?: 0) > 0 || (result?.unchangedFiles ?: 0) > 0) {
+                    tvStatus.text = "Nothing new to load: ${result?.unchanged ?: 0} unchanged rows, " +
+                        "${result?.unchangedFiles ?: 0} file(s) already imported"
                 } else {
                     tvStatus.text = "No valid records found"
                 }
                 
                 // Show skipped records notification if any
-                if (result.skippedRecords.isNotEmpty()) {
-                    showSkippedRecordsDialog(result.skippedRecords)
+                if (skippedCount > 0) {
+                    showSkippedRecordsDialog(skippedCount, result?.jobIds.orEmpty())
                 }
                 
+            } catch (e: CancellationException) {
+                tvStatus.text = "Import paused. Select the same file again to resume."
+                throw e
             } catch (e: Exception) {
                 tvStatus.text = "Error: ${e.message}"
                 showErrorDialog("Error", e.message ?: "Unknown error")
             } finally {
                 progressBar.visibility = View.GONE
+                btnSelectFile.text = "Select CSV"
             }
         }
     }
@@ -265,7 +336,13 @@ class MainActivity : AppCompatActivity() {
             .setMessage("Are you sure you want to delete all records from the database?")
             .setPositiveButton("Yes") { _, _ ->
                 lifecycleScope.launch {
-                    database.registrationDao().deleteAll()
+                    // Import history goes too, otherwise re-importing a file would be skipped as unchanged
+                    database.withTransaction {
+                        database.registrationDao().deleteAll()
+                        database.rowFingerprintDao().deleteAll()
+                        database.importJobDao().deleteAll()
+                        database.skippedRowDao().deleteAll()
+                    }
                     Toast.makeText(this@MainActivity, "All records cleared", Toast.LENGTH_SHORT).show()
                 }
             }
@@ -322,24 +399,10 @@ class MainActivity : AppCompatActivity() {
                 val fullName = etFullName.text.toString().trim()
                 val cne = etCNE.text.toString().trim()
                 
-                // Validation
-                if (!phoneNumber.matches(Regex("^0[67]\\d{8}$"))) {
-                    Toast.makeText(this, "Invalid phone number format", Toast.LENGTH_SHORT).show()
-                    return@setPositiveButton
-                }
-                
-                if (pukLastFour.length != 4 || !pukLastFour.all { it.isDigit() }) {
-                    Toast.makeText(this, "PUK must be 4 digits", Toast.LENGTH_SHORT).show()
-                    return@setPositiveButton
-                }
-                
-                if (fullName.isBlank()) {
-                    Toast.makeText(this, "Full name is required", Toast.LENGTH_SHORT).show()
-                    return@setPositiveButton
-                }
-                
-                if (cne.isBlank()) {
-                    Toast.makeText(this, "CNE is required", Toast.LENGTH_SHORT).show()
+                // Validation - same rules as file import
+                val failures = RecordValidator.DEFAULT.validate(phoneNumber, pukLastFour, fullName, cne)
+                if (failures != RecordValidator.VALID) {
+                    Toast.makeText(this, RecordValidator.DEFAULT.firstMessage(failures), Toast.LENGTH_SHORT).show()
                     return@setPositiveButton
                 }
                 
@@ -351,7 +414,7 @@ class MainActivity : AppCompatActivity() {
                         fullName = fullName,
                         cne = cne
                     )
-                    database.registrationDao().insert(record)
+                    database.registrationDao().upsertAll(listOf(record))
                     Toast.makeText(this@MainActivity, "Record added successfully", Toast.LENGTH_SHORT).show()
                 }
             }
@@ -367,68 +430,33 @@ class MainActivity : AppCompatActivity() {
             .show()
     }
     
-    private fun showSkippedRecordsDialog(skippedRecords: List<FileParser.SkippedRecord>) {
+    private fun showImportSummaryDialog(sources: List<ImportPipeline.SourceSummary>) {
         val message = buildString {
-            appendLine("${skippedRecords.size} record(s) were skipped due to validation errors:\n")
-            skippedRecords.forEachIndexed { index, record ->
-                appendLine("${index + 1}. Line ${record.lineNumber}:")
-                appendLine("   Phone: ${record.phoneNumber}")
-                appendLine("   PUK: ${record.pukLastFour}")
-                appendLine("   Name: ${record.fullName}")
-                appendLine("   CNE: ${record.cne}")
-                appendLine("   Reason: ${record.reason}")
+            sources.forEach { summary ->
+                appendLine(summary.source.toString())
+                appendLine("   Rows: ${summary.rowsRead} | Valid: ${summary.valid} | " +
+                    "Skipped: ${summary.skipped} | Duplicates: ${summary.duplicates} | " +
+                    "Unchanged: ${summary.unchanged}")
                 appendLine()
             }
         }
         
         AlertDialog.Builder(this)
-            .setTitle("⚠️ Skipped Records")
+            .setTitle("Import Summary")
             .setMessage(message)
             .setPositiveButton("OK", null)
-            .setNegativeButton("Export List") { _, _ ->
-                exportSkippedRecords(skippedRecords)
-            }
             .show()
     }
     
-    private fun exportSkippedRecords(skippedRecords: List<FileParser.SkippedRecord>) {
-        lifecycleScope.launch {
-            try {
-                val fileName = "skipped_records_${System.currentTimeMillis()}.txt"
-                val file = File(getExternalFilesDir(null), fileName)
-                
-                file.bufferedWriter().use { writer ->
-                    writer.write("Skipped Records Report\n")
-                    writer.write("Generated: ${java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss", java.util.Locale.getDefault()).format(java.util.Date())}\n")
-                    writer.write("Total Skipped: ${skippedRecords.size}\n\n")
-                    writer.write("=".repeat(60) + "\n\n")
-                    
-                    skippedRecords.forEachIndexed { index, record ->
-                        writer.write("Record ${index + 1}:\n")
-                        writer.write("Line Number: ${record.lineNumber}\n")
-                        writer.write("Phone Number: ${record.phoneNumber}\n")
-                        writer.write("PUK Last 4: ${record.pukLastFour}\n")
-                        writer.write("Full Name: ${record.fullName}\n")
-                        writer.write("CNE: ${record.cne}\n")
-                        writer.write("Reason: ${record.reason}\n")
-                        writer.write("-".repeat(60) + "\n\n")
-                    }
-                }
-                
-                Toast.makeText(
-                    this@MainActivity,
-                    "Skipped records exported to: ${file.absolutePath}",
-                    Toast.LENGTH_LONG
-                ).show()
-            } catch (e: Exception) {
-                Toast.makeText(
-                    this@MainActivity,
-                    "Error exporting: ${e.message}",
-                    Toast.LENGTH_SHORT
-                ).show()
+    private fun showSkippedRecordsDialog(skippedCount: Int, jobIds: List<Long>) {
+        AlertDialog.Builder(this)
+            .setTitle("⚠️ Skipped Records")
+            .setMessage("$skippedCount record(s) were skipped due to validation errors.")
+            .setPositiveButton("OK", null)
+            .setNegativeButton("View List") { _, _ ->
+                startActivity(SkippedRecordsActivity.intent(this, jobIds))
             }
-        }
+            .show()
     }
-    
 
 }
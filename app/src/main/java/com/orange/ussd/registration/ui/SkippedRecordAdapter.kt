@@ -0,0 +1,55 @@
+package com.orange.ussd.registration.ui
+
+import android.view.LayoutInflater
+import android.view.View
+import android.view.ViewGroup
+import android.widget.TextView
+import androidx.paging.PagingDataAdapter
+import androidx.recyclerview.widget.DiffUtil
+import androidx.recyclerview.widget.RecyclerView
+import com.orange.ussd.registration.R
+import com.orange.ussd.registration.data.model.SkippedRow
+import com.orange.ussd.registration.utils.RecordValidator
+
+class SkippedRecordAdapter(
+    private val validator: RecordValidator = RecordValidator.DEFAULT
+) : PagingDataAdapter<SkippedRow, SkippedRecordAdapter.ViewHolder>(DiffCallback()) {
+
+    override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): ViewHolder {
+        val view = LayoutInflater.from(parent.context)
+            .inflate(R.layout.item_skipped_record, parent, false)
+        return ViewHolder(view)
+    }
+
+    override fun onBindViewHolder(holder: ViewHolder, position: Int) {
+        getItem(position)?.let { holder.bind(it, validator) }
+    }
+
+    class ViewHolder(itemView: View) : RecyclerView.ViewHolder(itemView) {
+        private val tvLine: TextView = itemView.findViewById(R.id.tvLine)
+        private val tvPhoneNumber: TextView = itemView.findViewById(R.id.tvPhoneNumber)
+        private val tvDetails: TextView = itemView.findViewById(R.id.tvDetails)
+        private val tvReason: TextView = itemView.findViewById(R.id.tvReason)
+
+        fun bind(row: SkippedRow, validator: RecordValidator) {
+            tvLine.text = if (row.sheetName.isNotEmpty()) {
+                "${row.sheetName} #${row.lineNumber}"
+            } else {
+                "#${row.lineNumber}"
+            }
+            tvPhoneNumber.text = row.phoneNumber
+            tvDetails.text = "PUK: ${row.pukLastFour} | ${row.fullName} | CNE: ${row.cne}"
+            tvReason.text = validator.describe(row.reasonMask)
+        }
+    }
+
+    class DiffCallback : DiffUtil.ItemCallback<SkippedRow>() {
+        override fun areItemsTheSame(oldItem: SkippedRow, newItem: SkippedRow): Boolean {
+            return oldItem.id == newItem.id
+        }
+
+        override fun areContentsTheSame(oldItem: SkippedRow, newItem: SkippedRow): Boolean {
+            return oldItem == newItem
+        }
+    }
+}
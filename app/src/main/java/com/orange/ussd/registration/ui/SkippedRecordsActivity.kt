@@ -0,0 +1,163 @@
+package com.orange.ussd.registration.ui
+
+import android.content.Context
+import android.content.Intent
+import android.os.Bundle
+import android.widget.Button
+import android.widget.TextView
+import android.widget.Toast
+import androidx.appcompat.app.AppCompatActivity
+import androidx.lifecycle.lifecycleScope
+import androidx.paging.Pager
+import androidx.paging.PagingConfig
+import androidx.recyclerview.widget.LinearLayoutManager
+import androidx.recyclerview.widget.RecyclerView
+import com.orange.ussd.registration.R
+import com.orange.ussd.registration.data.database.AppDatabase
+import com.orange.ussd.registration.data.model.ReasonCount
+import com.orange.ussd.registration.utils.RecordValidator
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.collectLatest
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.text.SimpleDateFormat
+import java.util.*
+
+/**
+ * Rows rejected by one or more imports: a per-reason summary, a paged list read from Room,
+ * and an export streamed straight from a cursor.
+ */
+class SkippedRecordsActivity : AppCompatActivity() {
+
+    private lateinit var database: AppDatabase
+    private lateinit var adapter: SkippedRecordAdapter
+    private lateinit var tvSummary: TextView
+    private lateinit var btnExport: Button
+
+    private val validator = RecordValidator.DEFAULT
+    private var jobIds: List<Long> = emptyList()
+
+    override fun onCreate(savedInstanceState: Bundle?) {
+        super.onCreate(savedInstanceState)
+        setContentView(R.layout.activity_skipped_records)
+
+        database = AppDatabase.getDatabase(this)
+        jobIds = intent.getLongArrayExtra(EXTRA_JOB_IDS)?.toList().orEmpty()
+
+        tvSummary = findViewById(R.id.tvSummary)
+        btnExport = findViewById(R.id.btnExport)
+        adapter = SkippedRecordAdapter(validator)
+        findViewById<RecyclerView>(R.id.recyclerView).apply {
+            layoutManager = LinearLayoutManager(this@SkippedRecordsActivity)
+            adapter = this@SkippedRecordsActivity.adapter
+        }
+        btnExport.setOnClickListener { exportSkippedRecords() }
+
+        loadSummary()
+        observeRows()
+    }
+
+    private fun observeRows() {
+        val pager = Pager(PagingConfig(pageSize = PAGE_SIZE, enablePlaceholders = false)) {
+            database.skippedRowDao().pagingSource(jobIds)
+        }
+        lifecycleScope.launch {
+            pager.flow.collectLatest { adapter.submitData(it) }
+        }
+    }
+
+    private fun loadSummary() {
+        lifecycleScope.launch {
+            val counts = database.skippedRowDao().getReasonCounts(jobIds)
+            tvSummary.text = formatSummary(counts)
+        }
+    }
+
+    /**
+     * Split the per-combination counts into one total per reason
+     */
+    private fun formatSummary(counts: List<ReasonCount>): String {
+        val total = counts.sumOf { it.count }
+        return buildString {
+            append("$total record(s) were skipped due to validation errors")
+            for (bit in RecordValidator.REASON_BITS) {
+                val count = counts.filter { it.reasonMask and bit != 0 }.sumOf { it.count }
+                if (count > 0) append("\n• ${validator.message(bit)}: $count")
+            }
+        }
+    }
+
+    private fun exportSkippedRecords() {
+        btnExport.isEnabled = false
+        lifecycleScope.launch {
+            try {
+                val file = withContext(Dispatchers.IO) { writeReport() }
+                Toast.makeText(
+                    this@SkippedRecordsActivity,
+                    "Skipped records exported to: ${file.absolutePath}",
+                    Toast.LENGTH_LONG
+                ).show()
+            } catch (e: Exception) {
+                Toast.makeText(
+                    this@SkippedRecordsActivity,
+                    "Error exporting: ${e.message}",
+                    Toast.LENGTH_SHORT
+                ).show()
+            } finally {
+                btnExport.isEnabled = true
+            }
+        }
+    }
+
+    /**
+     * Write the report row by row from a cursor, so memory does not grow with the row count
+     */
+    private fun writeReport(): File {
+        val fileName = "skipped_records_${System.currentTimeMillis()}.txt"
+        val file = File(getExternalFilesDir(null), fileName)
+
+        database.skippedRowDao().cursorFor(jobIds).use { cursor ->
+            val sheetName = cursor.getColumnIndexOrThrow("sheetName")
+            val lineNumber = cursor.getColumnIndexOrThrow("lineNumber")
+            val phoneNumber = cursor.getColumnIndexOrThrow("phoneNumber")
+            val pukLastFour = cursor.getColumnIndexOrThrow("pukLastFour")
+            val fullName = cursor.getColumnIndexOrThrow("fullName")
+            val cne = cursor.getColumnIndexOrThrow("cne")
+            val reasonMask = cursor.getColumnIndexOrThrow("reasonMask")
+
+            file.bufferedWriter().use { writer ->
+                writer.write("Skipped Records Report\n")
+                writer.write("Generated: ${SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault()).format(Date())}\n")
+                writer.write("Total Skipped: ${cursor.count}\n\n")
+                writer.write("=".repeat(60) + "\n\n")
+
+                var index = 0
+                while (cursor.moveToNext()) {
+                    index++
+                    writer.write("Record $index:\n")
+                    val sheet = cursor.getString(sheetName).orEmpty()
+                    if (sheet.isNotEmpty()) writer.write("Sheet: $sheet\n")
+                    writer.write("Line Number: ${cursor.getInt(lineNumber)}\n")
+                    writer.write("Phone Number: ${cursor.getString(phoneNumber)}\n")
+                    writer.write("PUK Last 4: ${cursor.getString(pukLastFour)}\n")
+                    writer.write("Full Name: ${cursor.getString(fullName)}\n")
+                    writer.write("CNE: ${cursor.getString(cne)}\n")
+                    writer.write("Reason: ${validator.describe(cursor.getInt(reasonMask))}\n")
+                    writer.write("-".repeat(60) + "\n\n")
+                }
+            }
+        }
+        return file
+    }
+
+    companion object {
+        private const val EXTRA_JOB_IDS = "job_ids"
+        private const val PAGE_SIZE = 50
+
+        fun intent(context: Context, jobIds: List<Long>): Intent {
+            return Intent(context, SkippedRecordsActivity::class.java)
+                .putExtra(EXTRA_JOB_IDS, jobIds.toLongArray())
+        }
+    }
+}
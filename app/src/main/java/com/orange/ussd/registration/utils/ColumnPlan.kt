@@ -0,0 +1,68 @@
+package com.orange.ussd.registration.utils
+
+/**
+ * Column mapping for one import file, resolved once from the header (or the column count)
+ * and then applied to every row without further checks.
+ * Indexes are -1 when the column is not present.
+ */
+class ColumnPlan(
+    val phone: Int,
+    val puk: Int,
+    val cne: Int,
+    val fullName: Int,
+    val firstName: Int,
+    val lastName: Int,
+    val hasHeader: Boolean
+) {
+
+    /**
+     * Rows with fewer cells than this cannot be mapped
+     */
+    val minColumns: Int = maxOf(phone, puk, cne, fullName, maxOf(firstName, lastName)) + 1
+
+    /**
+     * Whether column [index] feeds a record field; other columns never need decoding
+     */
+    fun isMapped(index: Int): Boolean = index == phone || index == puk || index == cne ||
+            index == fullName || index == firstName || index == lastName
+
+    fun phone(cells: List<String>): String = cell(cells, phone)
+
+    fun puk(cells: List<String>): String = cell(cells, puk)
+
+    fun cne(cells: List<String>): String = cell(cells, cne)
+
+    fun fullName(cells: List<String>): String {
+        if (fullName >= 0) return cell(cells, fullName)
+        return "${cell(cells, firstName)} ${cell(cells, lastName)}"
+    }
+
+    private fun cell(cells: List<String>, index: Int): String {
+        return if (index in cells.indices) cells[index] else ""
+    }
+
+    companion object {
+        /**
+         * Format: phone;puk;fullname;cne
+         */
+        val FOUR_COLUMNS = ColumnPlan(
+            phone = 0, puk = 1, cne = 3, fullName = 2, firstName = -1, lastName = -1, hasHeader = false
+        )
+
+        /**
+         * Format: phone;puk;cne;firstname;lastname
+         */
+        val FIVE_COLUMNS = ColumnPlan(
+            phone = 0, puk = 1, cne = 2, fullName = -1, firstName = 3, lastName = 4, hasHeader = false
+        )
+
+        fun positional(columnCount: Int, hasHeader: Boolean = false): ColumnPlan {
+            val base = if (columnCount >= 5) FIVE_COLUMNS else FOUR_COLUMNS
+            return if (hasHeader) base.withHeader() else base
+        }
+
+        private fun ColumnPlan.withHeader() = ColumnPlan(
+            phone, puk, cne, fullName, firstName, lastName, hasHeader = true
+        )
+    }
+}
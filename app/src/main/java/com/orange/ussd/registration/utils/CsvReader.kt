@@ -0,0 +1,165 @@
+package com.orange.ussd.registration.utils
+
+import java.io.Closeable
+import java.io.Reader
+
+/**
+ * Streaming CSV reader.
+ * Pulls characters from [reader] in fixed-size chunks and yields one [Row] at a time,
+ * so only the row being parsed is held in memory regardless of the file size.
+ * Supports quoted fields (delimiters and line breaks inside quotes, "" as an escaped quote),
+ * LF and CRLF line endings, a leading UTF-8 BOM, and skips blank lines.
+ * Tracks the UTF-8 byte offset reached after each row so a later read can seek straight to it;
+ * [startOffset] and [startLine] describe where [reader] starts when resuming mid-file.
+ */
+class CsvReader(
+    private val reader: Reader,
+    private val delimiter: Char,
+    bufferSize: Int = DEFAULT_BUFFER_SIZE,
+    startOffset: Long = 0,
+    startLine: Int = 1
+) : Iterator<CsvReader.Row>, Closeable {
+
+    /**
+     * One parsed CSV row. [lineNumber] is the 1-based physical line the row starts on and
+     * [endOffset] the byte offset just past the row's line break.
+     */
+    class Row(val lineNumber: Int, val fields: List<String>, val endOffset: Long)
+
+    private val buffer = CharArray(bufferSize)
+    private var pos = 0
+    private var limit = 0
+    private var eof = false
+    private var currentLine = startLine
+    private var atStart = startOffset == 0L
+    private var byteOffset = startOffset
+    private val field = StringBuilder(64)
+    private var nextRow: Row? = null
+
+    override fun hasNext(): Boolean {
+        if (nextRow == null) {
+            nextRow = readRow()
+        }
+        return nextRow != null
+    }
+
+    override fun next(): Row {
+        if (!hasNext()) throw NoSuchElementException()
+        val row = nextRow!!
+        nextRow = null
+        return row
+    }
+
+    fun rows(): Sequence<Row> = Sequence { this }
+
+    override fun close() {
+        reader.close()
+    }
+
+    private fun fill(): Boolean {
+        if (eof) return false
+        val read = reader.read(buffer, 0, buffer.size)
+        if (read <= 0) {
+            eof = true
+            pos = 0
+            limit = 0
+            return false
+        }
+        pos = 0
+        limit = read
+        if (atStart) {
+            atStart = false
+            if (buffer[0] == BOM) {
+                pos = 1
+                byteOffset += 3
+            }
+        }
+        return true
+    }
+
+    private fun readRow(): Row? {
+        val fields = ArrayList<String>(8)
+        var startLine = currentLine
+        var inQuotes = false
+        var sawContent = false
+        field.setLength(0)
+
+        while (true) {
+            if (pos >= limit && !fill()) {
+                if (!sawContent) return null
+                fields.add(field.toString())
+                return Row(startLine, fields, byteOffset)
+            }
+
+            val c = buffer[pos++]
+            byteOffset += utf8Length(c)
+
+            if (inQuotes) {
+                if (c == '"') {
+                    if (pos >= limit && !fill()) {
+                        inQuotes = false
+                    } else if (buffer[pos] == '"') {
+                        field.append('"')
+                        pos++
+                        byteOffset++
+                    } else {
+                        inQuotes = false
+                    }
+                } else {
+                    if (c == '\n') currentLine++
+                    field.append(c)
+                }
+                continue
+            }
+
+            when (c) {
+                '\n' -> {
+                    currentLine++
+                    if (!sawContent) {
+                        // Blank line - restart on the next one
+                        startLine = currentLine
+                        field.setLength(0)
+                        continue
+                    }
+                    fields.add(field.toString())
+                    return Row(startLine, fields, byteOffset)
+                }
+                '\r' -> Unit
+                delimiter -> {
+                    sawContent = true
+                    fields.add(field.toString())
+                    field.setLength(0)
+                }
+                '"' -> {
+                    sawContent = true
+                    if (field.isBlank()) {
+                        field.setLength(0)
+                        inQuotes = true
+                    } else {
+                        field.append(c)
+                    }
+                }
+                else -> {
+                    if (!c.isWhitespace()) sawContent = true
+                    field.append(c)
+                }
+            }
+        }
+    }
+
+    /**
+     * Bytes [c] takes in UTF-8. A surrogate pair is 4 bytes, counted on the high surrogate.
+     */
+    private fun utf8Length(c: Char): Int = when {
+        c.code < 0x80 -> 1
+        c.code < 0x800 -> 2
+        c.isHighSurrogate() -> 4
+        c.isLowSurrogate() -> 0
+        else -> 3
+    }
+
+    companion object {
+        const val DEFAULT_BUFFER_SIZE = 16 * 1024
+        private const val BOM = '\uFEFF'
+    }
+}
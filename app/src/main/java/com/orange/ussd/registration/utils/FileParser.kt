@@ -2,21 +2,82 @@ package com.orange.ussd.registration.utils
 
 import android.content.Context
 import android.net.Uri
+import android.provider.OpenableColumns
 import com.orange.ussd.registration.data.model.RegistrationRecord
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.channels.trySendBlocking
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.buffer
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.flow.flowOn
+import org.apache.poi.poifs.filesystem.FileMagic
 import org.apache.poi.ss.usermodel.WorkbookFactory
 import org.apache.poi.ss.usermodel.CellType
+import java.io.BufferedReader
+import java.io.File
+import java.io.FileInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.InputStreamReader
+import java.io.StringReader
+import java.security.MessageDigest
 
 object FileParser {
     
+    private const val READ_BUFFER_SIZE = 64 * 1024
+    private const val FLOW_BUFFER_SIZE = 256
+    private const val HEAD_HASH_SIZE = 64 * 1024
+    
     data class SkippedRecord(
         val lineNumber: Int,
         val phoneNumber: String,
         val pukLastFour: String,
         val fullName: String,
         val cne: String,
-        val reason: String
+        val reason: String,
+        val reasonMask: Int = 0
+    )
+    
+    /**
+     * Where a row came from: a file and, for workbooks, a sheet
+     */
+    data class Source(val fileName: String, val sheetName: String? = null) {
+        override fun toString(): String = if (sheetName != null) "$fileName [$sheetName]" else fileName
+    }
+    
+    /**
+     * One data row as read from the file, before validation.
+     * [plan] is the column mapping resolved once for the whole file (or sheet).
+     * [endOffset] is the byte offset just past the row for CSV files, -1 for workbooks.
+     */
+    class RawRow(
+        val lineNumber: Int,
+        val cells: List<String>,
+        val plan: ColumnPlan,
+        val source: Source,
+        val endOffset: Long = -1
     )
     
+    /**
+     * Last row already committed by an earlier run. CSV reading seeks straight to [byteOffset];
+     * workbooks skip rows up to [lineNumber] of [sheetName] without validating them.
+     */
+    data class ResumePoint(val lineNumber: Int, val byteOffset: Long, val sheetName: String? = null)
+    
+    /**
+     * Delimiter and column plan of a CSV file, sniffed from its first few KB
+     */
+    private class CsvLayout(val delimiter: Char, val plan: ColumnPlan)
+    
+    /**
+     * Outcome of parsing a single data row
+     */
+    sealed class ParsedRow {
+        data class Valid(val lineNumber: Int, val record: RegistrationRecord) : ParsedRow()
+        data class Skipped(val record: SkippedRecord) : ParsedRow()
+        data class Error(val lineNumber: Int, val message: String) : ParsedRow()
+    }
+    
     data class ParseResult(
         val records: List<RegistrationRecord>,
         val errors: List<String>,
@@ -26,36 +87,18 @@ object FileParser {
     /**
      * Parse CSV or Excel file and return list of RegistrationRecords
      * Expected columns: PHONE_NUMBER, DDDD (last 4 of PUK), FULL_NAME, CNE
+     * When a header row is present the columns are mapped by name in any order (see [SchemaSniffer])
      * Supports both CSV and Excel (.xlsx, .xls) files
      * Records with invalid PUK (not 4 digits) or phone numbers will be skipped
      */
     fun parseFile(context: Context, uri: Uri): ParseResult {
         return try {
-            // Get MIME type from content resolver
-            val mimeType = context.contentResolver.getType(uri)?.lowercase()
+            val fileType = detectFileType(context, uri)
 
-            // Also check file name/path
-            val fileName = uri.path?.lowercase() ?: ""
-            val displayName = uri.lastPathSegment?.lowercase() ?: ""
-
-            // Determine file type
-            val isCSV = mimeType?.contains("csv") == true ||
-                       mimeType?.contains("text") == true ||
-                       fileName.endsWith(".csv") ||
-                       displayName.endsWith(".csv")
-
-            val isExcel = mimeType?.contains("spreadsheet") == true ||
-                         mimeType?.contains("excel") == true ||
-                         mimeType?.contains("ms-excel") == true ||
-                         fileName.endsWith(".xlsx") ||
-                         fileName.endsWith(".xls") ||
-                         displayName.endsWith(".xlsx") ||
-                         displayName.endsWith(".xls")
-
-            when {
-                isCSV -> parseCSV(context, uri)
-                isExcel -> parseExcel(context, uri)
-                else -> {
+            when (fileType) {
+                FileType.CSV -> parseCSV(context, uri)
+                FileType.EXCEL -> parseExcel(context, uri)
+                FileType.UNKNOWN -> {
                     // Try CSV as fallback
                     val csvResult = parseCSV(context, uri)
                     if (csvResult.records.isNotEmpty()) {
@@ -63,7 +106,7 @@ object FileParser {
                     } else {
                         ParseResult(
                             emptyList(),
-                            listOf("Unsupported file format. Please use CSV or Excel files. MIME type: $mimeType")
+                            listOf("Unsupported file format. Please use CSV or Excel files. MIME type: ${context.contentResolver.getType(uri)}")
                         )
                     }
                 }
@@ -73,101 +116,271 @@ object FileParser {
         }
     }
     
+    private enum class FileType { CSV, EXCEL, UNKNOWN }
+    
+    private fun detectFileType(context: Context, uri: Uri): FileType {
+        // Get MIME type from content resolver
+        val mimeType = context.contentResolver.getType(uri)?.lowercase()
+
+        // Also check file name/path
+        val fileName = uri.path?.lowercase() ?: ""
+        val displayName = uri.lastPathSegment?.lowercase() ?: ""
+
+        val isCSV = mimeType?.contains("csv") == true ||
+                   mimeType?.contains("text") == true ||
+                   fileName.endsWith(".csv") ||
+                   displayName.endsWith(".csv")
+
+        val isExcel = mimeType?.contains("spreadsheet") == true ||
+                     mimeType?.contains("excel") == true ||
+                     mimeType?.contains("ms-excel") == true ||
+                     fileName.endsWith(".xlsx") ||
+                     fileName.endsWith(".xls") ||
+                     displayName.endsWith(".xlsx") ||
+                     displayName.endsWith(".xls")
+
+        return when {
+            isCSV -> FileType.CSV
+            isExcel -> FileType.EXCEL
+            else -> FileType.UNKNOWN
+        }
+    }
+    
+    /**
+     * Stream a file and emit one [ParsedRow] per data row.
+     * CSV and .xlsx files are read row by row, so only a bounded window of rows is kept in memory.
+     */
+    fun parseFileAsFlow(context: Context, uri: Uri): Flow<ParsedRow> = channelFlow {
+        // Rows are pushed from a blocking reader, so back-pressure blocks the IO thread
+        readRows(context, uri) { row ->
+            trySendBlocking(validateRow(row)).getOrThrow()
+        }
+    }.buffer(FLOW_BUFFER_SIZE).flowOn(Dispatchers.IO)
+
+    /**
+     * Read raw rows (header removed, cells trimmed) from a CSV or Excel file without validating them.
+     * With [resumeFrom] only the rows after that point are returned.
+     * Blocking: call from a background dispatcher.
+     */
+    fun readRows(context: Context, uri: Uri, resumeFrom: ResumePoint? = null, onRow: (RawRow) -> Unit) {
+        val fileName = displayName(context, uri)
+        if (detectFileType(context, uri) == FileType.EXCEL) {
+            readExcelRows(context, uri, fileName, resumeFrom, onRow)
+            return
+        }
+
+        val source = Source(fileName)
+        if (readMappedCSVRows(context, uri, source, resumeFrom, onRow)) return
+
+        if (resumeFrom != null && resumeFrom.byteOffset > 0) {
+            // The layout still comes from the start of the file; the rows are read from the checkpoint on
+            val layout = openStream(context, uri).use { stream -> sniffCSVLayout(csvReader(stream)) }
+            openStream(context, uri).use { stream ->
+                skipFully(stream, resumeFrom.byteOffset)
+                readCSVRows(
+                    csvReader(stream), layout, source,
+                    skipHeader = false,
+                    startOffset = resumeFrom.byteOffset,
+                    startLine = resumeFrom.lineNumber + 1
+                ).forEach(onRow)
+            }
+            return
+        }
+
+        openStream(context, uri).use { stream ->
+            val reader = csvReader(stream)
+            val layout = sniffCSVLayout(reader)
+            readCSVRows(reader, layout, source, skipHeader = layout.plan.hasHeader).forEach(onRow)
+        }
+    }
+    
+    /**
+     * Fast path for CSV files the provider can hand out as a plain file descriptor: the file is
+     * memory-mapped and scanned in place, and only the mapped columns are decoded (the other
+     * cells are left empty). Returns false if the file cannot be mapped, so the caller streams it.
+     */
+    private fun readMappedCSVRows(
+        context: Context,
+        uri: Uri,
+        source: Source,
+        resumeFrom: ResumePoint?,
+        onRow: (RawRow) -> Unit
+    ): Boolean {
+        val descriptor = try {
+            context.contentResolver.openFileDescriptor(uri, "r")
+        } catch (e: Exception) {
+            null
+        } ?: return false
+        
+        descriptor.use { pfd ->
+            FileInputStream(pfd.fileDescriptor).use { input ->
+                val reader = MappedCsvReader.map(input.channel) ?: return false
+                val layout = sniffCSVLayout(
+                    reader.sample(SchemaSniffer.SAMPLE_SIZE),
+                    isWholeFile = reader.size <= SchemaSniffer.SAMPLE_SIZE
+                )
+                val plan = layout.plan
+                val resumePoint = resumeFrom?.takeIf { it.byteOffset > 0 }
+                var skipNext = plan.hasHeader && resumePoint == null
+                reader.forEachRow(
+                    layout.delimiter,
+                    startOffset = resumePoint?.byteOffset ?: 0,
+                    startLine = if (resumePoint != null) resumePoint.lineNumber + 1 else 1
+                ) { row ->
+                    if (skipNext) {
+                        skipNext = false
+                        return@forEachRow
+                    }
+                    val cells = ArrayList<String>(row.fieldCount)
+                    for (i in 0 until row.fieldCount) {
+                        cells.add(if (plan.isMapped(i)) row.field(i).trim() else "")
+                    }
+                    onRow(RawRow(row.lineNumber, cells, plan, source, row.endOffset))
+                }
+            }
+        }
+        return true
+    }
+    
+    /**
+     * Size of [uri] in bytes, or -1 if the provider does not report it
+     */
+    fun fileSize(context: Context, uri: Uri): Long {
+        return try {
+            context.contentResolver.openFileDescriptor(uri, "r")?.use { it.statSize } ?: -1
+        } catch (e: Exception) {
+            -1
+        }
+    }
+    
+    /**
+     * Hex SHA-256 of the first [HEAD_HASH_SIZE] bytes of [uri]. Together with the file size this
+     * identifies a file cheaply enough to decide whether a checkpoint still applies to it.
+     */
+    fun headHash(context: Context, uri: Uri): String = hash(context, uri, HEAD_HASH_SIZE.toLong())
+    
+    /**
+     * Hex SHA-256 of the whole content of [uri]
+     */
+    fun contentHash(context: Context, uri: Uri): String = hash(context, uri, Long.MAX_VALUE)
+    
+    private fun hash(context: Context, uri: Uri, limit: Long): String {
+        val digest = MessageDigest.getInstance("SHA-256")
+        openStream(context, uri).use { stream ->
+            val buffer = ByteArray(READ_BUFFER_SIZE)
+            var remaining = limit
+            while (remaining > 0) {
+                val read = stream.read(buffer, 0, minOf(buffer.size.toLong(), remaining).toInt())
+                if (read < 0) break
+                digest.update(buffer, 0, read)
+                remaining -= read
+            }
+        }
+        return digest.digest().joinToString("") { "%02x".format(it) }
+    }
+    
+    private fun openStream(context: Context, uri: Uri): InputStream =
+        context.contentResolver.openInputStream(uri) ?: throw IOException("Unable to open file")
+    
+    /**
+     * Skip [count] bytes. For file-backed streams this is a seek, nothing is read.
+     */
+    private fun skipFully(stream: InputStream, count: Long) {
+        var remaining = count
+        while (remaining > 0) {
+            val skipped = stream.skip(remaining)
+            if (skipped <= 0) {
+                if (stream.read() < 0) throw IOException("File is shorter than the saved checkpoint")
+                remaining--
+            } else {
+                remaining -= skipped
+            }
+        }
+    }
+    
+    /**
+     * User-visible file name of [uri], falling back to its last path segment
+     */
+    fun displayName(context: Context, uri: Uri): String {
+        try {
+            context.contentResolver.query(uri, arrayOf(OpenableColumns.DISPLAY_NAME), null, null, null)?.use { cursor ->
+                if (cursor.moveToNext()) {
+                    cursor.getString(0)?.let { return it }
+                }
+            }
+        } catch (e: Exception) {
+            // Not every provider supports the query; use the URI instead
+        }
+        return uri.lastPathSegment ?: uri.toString()
+    }
+
+    /**
+     * Lazily parse CSV content from [inputStream].
+     * The delimiter is taken from the first line only; the rest of the file is read in chunks.
+     */
+    fun parseCSVStream(inputStream: InputStream): Sequence<ParsedRow> {
+        val reader = csvReader(inputStream)
+        val layout = sniffCSVLayout(reader)
+        return readCSVRows(reader, layout, Source("csv"), skipHeader = layout.plan.hasHeader)
+            .map { validateRow(it) }
+    }
+    
+    private fun csvReader(inputStream: InputStream): BufferedReader =
+        BufferedReader(InputStreamReader(inputStream, Charsets.UTF_8), READ_BUFFER_SIZE)
+    
+    /**
+     * Infer delimiter and column layout from the first few KB of [reader] without consuming them
+     */
+    private fun sniffCSVLayout(reader: BufferedReader): CsvLayout {
+        val (sample, isWholeFile) = readSample(reader)
+        return sniffCSVLayout(sample, isWholeFile)
+    }
+    
+    private fun sniffCSVLayout(sample: String, isWholeFile: Boolean): CsvLayout {
+        val delimiter = SchemaSniffer.detectDelimiter(sample, isWholeFile)
+        val columnCount = SchemaSniffer.modalColumnCount(sample, delimiter, isWholeFile)
+        val firstRow = CsvReader(StringReader(sample), delimiter).use { rows ->
+            if (rows.hasNext()) rows.next().fields.map { it.trim() } else emptyList()
+        }
+        return CsvLayout(delimiter, SchemaSniffer.planFor(firstRow, columnCount))
+    }
+
+    /**
+     * Lazily read raw CSV rows (cells trimmed) from [reader], dropping the first row if [skipHeader]
+     */
+    private fun readCSVRows(
+        reader: BufferedReader,
+        layout: CsvLayout,
+        source: Source,
+        skipHeader: Boolean,
+        startOffset: Long = 0,
+        startLine: Int = 1
+    ): Sequence<RawRow> = sequence {
+        val csvReader = CsvReader(reader, layout.delimiter, startOffset = startOffset, startLine = startLine)
+        var skipNext = skipHeader
+        for (row in csvReader.rows()) {
+            if (skipNext) {
+                skipNext = false
+                continue
+            }
+            yield(RawRow(row.lineNumber, row.fields.map { it.trim() }, layout.plan, source, row.endOffset))
+        }
+    }
+
     private fun parseCSV(context: Context, uri: Uri): ParseResult {
         val records = mutableListOf<RegistrationRecord>()
         val errors = mutableListOf<String>()
         val skippedRecords = mutableListOf<SkippedRecord>()
+        var sawRows = false
         
         try {
             context.contentResolver.openInputStream(uri)?.use { inputStream ->
-                // Read raw content to detect delimiter
-                val content = inputStream.bufferedReader().readText()
-                val delimiter = if (content.contains(';')) ';' else ','
-                
-                // Parse the content manually by lines
-                val lines = content.lines().filter { it.isNotBlank() }
-                
-                if (lines.isEmpty()) {
-                    return ParseResult(emptyList(), listOf("File is empty"))
-                }
-                
-                // Skip header row if it exists
-                val startIndex = if (lines[0].contains("PHONE", ignoreCase = true) || 
-                                   lines[0].contains("0665", ignoreCase = true) || 
-                                   lines[0].contains("0622", ignoreCase = true)) {
-                    if (lines[0].startsWith("06")) 0 else 1
-                } else 0
-                
-                lines.drop(startIndex).forEachIndexed { index, line ->
-                    val lineNumber = index + startIndex + 1
-                    val row = line.split(delimiter).map { it.trim() }
-                    
-                    if (row.size < 4) {
-                        errors.add("Line $lineNumber: Expected at least 4 columns, found ${row.size}")
-                        return@forEachIndexed
-                    }
-                    
-                    try {
-                        val phoneNumber = row[0]
-                        val pukLastFour = row[1]
-                        
-                        // Support different column formats
-                        val (fullName, cne) = when {
-                            row.size >= 5 -> {
-                                // Format: phone;puk;cne;firstname;lastname
-                                val name = "${row[3]} ${row[4]}"
-                                Pair(name, row[2])
-                            }
-                            else -> {
-                                // Format: phone;puk;fullname;cne
-                                Pair(row[2], row[3])
-                            }
-                        }
-                        
-                        // Validation - track invalid records
-                        val validationErrors = mutableListOf<String>()
-                        
-                        if (!isValidPhoneNumber(phoneNumber)) {
-                            validationErrors.add("Invalid phone number")
-                        }
-                        
-                        if (pukLastFour.length != 4 || !pukLastFour.all { it.isDigit() }) {
-                            validationErrors.add("PUK must be exactly 4 digits")
-                        }
-                        
-                        if (fullName.isBlank()) {
-                            validationErrors.add("Full name is required")
-                        }
-                        
-                        if (cne.isBlank()) {
-                            validationErrors.add("CNE is required")
-                        }
-                        
-                        // If there are validation errors, skip this record
-                        if (validationErrors.isNotEmpty()) {
-                            skippedRecords.add(
-                                SkippedRecord(
-                                    lineNumber = lineNumber,
-                                    phoneNumber = phoneNumber,
-                                    pukLastFour = pukLastFour,
-                                    fullName = fullName,
-                                    cne = cne,
-                                    reason = validationErrors.joinToString(", ")
-                                )
-                            )
-                            return@forEachIndexed
-                        }
-                        
-                        records.add(
-                            RegistrationRecord(
-                                phoneNumber = phoneNumber,
-                                pukLastFour = pukLastFour,
-                                fullName = fullName,
-                                cne = cne
-                            )
-                        )
-                    } catch (e: Exception) {
-                        errors.add("Line $lineNumber: ${e.message}")
+                parseCSVStream(inputStream).forEach { parsed ->
+                    sawRows = true
+                    when (parsed) {
+                        is ParsedRow.Valid -> records.add(parsed.record)
+                        is ParsedRow.Skipped -> skippedRecords.add(parsed.record)
+                        is ParsedRow.Error -> errors.add(parsed.message)
                     }
                 }
             }
@@ -175,6 +388,10 @@ object FileParser {
             return ParseResult(emptyList(), listOf("Error reading CSV file: ${e.message}"))
         }
         
+        if (!sawRows) {
+            return ParseResult(emptyList(), listOf("File is empty"))
+        }
+        
         return ParseResult(records, errors, skippedRecords)
     }
     
@@ -182,121 +399,178 @@ object FileParser {
         val records = mutableListOf<RegistrationRecord>()
         val errors = mutableListOf<String>()
         val skippedRecords = mutableListOf<SkippedRecord>()
+        var sawRows = false
         
         try {
-            context.contentResolver.openInputStream(uri)?.use { inputStream ->
-                val workbook = WorkbookFactory.create(inputStream)
-                val sheet = workbook.getSheetAt(0)
-                
-                if (sheet.physicalNumberOfRows == 0) {
-                    return ParseResult(emptyList(), listOf("Excel file is empty"))
+            readExcelRows(context, uri, displayName(context, uri), null) { row ->
+                sawRows = true
+                when (val parsed = validateRow(row)) {
+                    is ParsedRow.Valid -> records.add(parsed.record)
+                    is ParsedRow.Skipped -> skippedRecords.add(parsed.record)
+                    is ParsedRow.Error -> errors.add(parsed.message)
                 }
-                
-                // Detect if first row is header
-                val firstRow = sheet.getRow(0)
-                val startIndex = if (firstRow != null) {
-                    val firstCell = firstRow.getCell(0)?.toString() ?: ""
-                    if (firstCell.contains("PHONE", ignoreCase = true) || 
-                        firstCell.contains("0665", ignoreCase = true) ||
-                        firstCell.contains("0622", ignoreCase = true)) {
-                        if (firstCell.startsWith("06")) 0 else 1
-                    } else 0
-                } else 0
-                
-                // Parse data rows
-                for (i in startIndex until sheet.physicalNumberOfRows) {
-                    val row = sheet.getRow(i) ?: continue
-                    val lineNumber = i + 1
-                    
-                    if (row.physicalNumberOfCells < 4) {
-                        errors.add("Line $lineNumber: Expected at least 4 columns, found ${row.physicalNumberOfCells}")
-                        continue
+            }
+        } catch (e: Exception) {
+            return ParseResult(emptyList(), listOf("Error reading Excel file: ${e.message}"))
+        }
+        
+        if (!sawRows) {
+            return ParseResult(emptyList(), listOf("Excel file is empty"))
+        }
+        
+        return ParseResult(records, errors, skippedRecords)
+    }
+    
+    /**
+     * Read raw rows (header removed, cells trimmed) from every sheet of an Excel file.
+     * Each sheet gets its own column plan from its first row.
+     * .xlsx workbooks go through the streaming SAX reader; the POI DOM is only used for legacy .xls.
+     * The content is copied to a cache file first because both readers need random access to it.
+     * With [resumeFrom], rows up to the checkpoint are passed over without being validated.
+     */
+    private fun readExcelRows(
+        context: Context,
+        uri: Uri,
+        fileName: String,
+        resumeFrom: ResumePoint?,
+        onRow: (RawRow) -> Unit
+    ) {
+        val tempFile = File.createTempFile("import_", ".tmp", context.cacheDir)
+        try {
+            val inputStream = context.contentResolver.openInputStream(uri)
+                ?: throw IOException("Unable to open file")
+            inputStream.use { input ->
+                tempFile.outputStream().use { output -> input.copyTo(output, READ_BUFFER_SIZE) }
+            }
+            
+            var source: Source? = null
+            var plan: ColumnPlan? = null
+            var skipping = resumeFrom != null
+            var inResumeSheet = false
+            val emit: (String, Int, List<String>) -> Unit = { sheetName, rowNumber, rawCells ->
+                val cells = rawCells.map { it.trim() }
+                var currentSource = source
+                if (currentSource == null || currentSource.sheetName != sheetName) {
+                    currentSource = Source(fileName, sheetName)
+                    source = currentSource
+                    plan = null
+                    if (skipping && resumeFrom != null) {
+                        // Sheets are read in order, so every sheet after the checkpoint one is new
+                        if (inResumeSheet) skipping = false
+                        inResumeSheet = sheetName == resumeFrom.sheetName
                     }
+                }
+                if (skipping && inResumeSheet && resumeFrom != null && rowNumber > resumeFrom.lineNumber) {
+                    skipping = false
+                }
+                val currentPlan = plan
+                if (currentPlan == null) {
+                    val firstPlan = SchemaSniffer.planFor(cells, cells.size)
+                    plan = firstPlan
+                    if (!firstPlan.hasHeader && !skipping) onRow(RawRow(rowNumber, cells, firstPlan, currentSource))
+                } else if (!skipping) {
+                    onRow(RawRow(rowNumber, cells, currentPlan, currentSource))
+                }
+            }
+            
+            when (FileMagic.valueOf(tempFile)) {
+                FileMagic.OOXML -> XlsxStreamReader(tempFile).use { it.forEachRow(emit) }
+                else -> readLegacyExcelRows(tempFile, emit)
+            }
+        } finally {
+            tempFile.delete()
+        }
+    }
+    
+    /**
+     * DOM-based reader kept for legacy .xls (OLE2) workbooks
+     */
+    private fun readLegacyExcelRows(file: File, onRow: (String, Int, List<String>) -> Unit) {
+        WorkbookFactory.create(file, null, true).use { workbook ->
+            for (sheet in workbook) {
+                for (row in sheet) {
+                    val cellCount = row.lastCellNum.toInt()
+                    if (cellCount <= 0) continue
                     
-                    try {
-                        fun getCellValue(cellIndex: Int): String {
-                            val cell = row.getCell(cellIndex) ?: return ""
-                            return when (cell.cellType) {
+                    val cells = ArrayList<String>(cellCount)
+                    for (cellIndex in 0 until cellCount) {
+                        val cell = row.getCell(cellIndex)
+                        cells.add(
+                            when (cell?.cellType) {
+                                null -> ""
                                 CellType.STRING -> cell.stringCellValue
                                 CellType.NUMERIC -> cell.numericCellValue.toLong().toString()
                                 else -> cell.toString()
-                            }.trim()
-                        }
-                        
-                        val phoneNumber = getCellValue(0)
-                        val pukLastFour = getCellValue(1)
-                        
-                        // Support different column formats
-                        val (fullName, cne) = when {
-                            row.physicalNumberOfCells >= 5 -> {
-                                // Format: phone;puk;cne;firstname;lastname
-                                val name = "${getCellValue(3)} ${getCellValue(4)}"
-                                Pair(name, getCellValue(2))
                             }
-                            else -> {
-                                // Format: phone;puk;fullname;cne
-                                Pair(getCellValue(2), getCellValue(3))
-                            }
-                        }
-                        
-                        // Validation - track invalid records
-                        val validationErrors = mutableListOf<String>()
-                        
-                        if (!isValidPhoneNumber(phoneNumber)) {
-                            validationErrors.add("Invalid phone number")
-                        }
-                        
-                        if (pukLastFour.length != 4 || !pukLastFour.all { it.isDigit() }) {
-                            validationErrors.add("PUK must be exactly 4 digits")
-                        }
-                        
-                        if (fullName.isBlank()) {
-                            validationErrors.add("Full name is required")
-                        }
-                        
-                        if (cne.isBlank()) {
-                            validationErrors.add("CNE is required")
-                        }
-                        
-                        // If there are validation errors, skip this record
-                        if (validationErrors.isNotEmpty()) {
-                            skippedRecords.add(
-                                SkippedRecord(
-                                    lineNumber = lineNumber,
-                                    phoneNumber = phoneNumber,
-                                    pukLastFour = pukLastFour,
-                                    fullName = fullName,
-                                    cne = cne,
-                                    reason = validationErrors.joinToString(", ")
-                                )
-                            )
-                            continue
-                        }
-                        
-                        records.add(
-                            RegistrationRecord(
-                                phoneNumber = phoneNumber,
-                                pukLastFour = pukLastFour,
-                                fullName = fullName,
-                                cne = cne
-                            )
                         )
-                    } catch (e: Exception) {
-                        errors.add("Line $lineNumber: ${e.message}")
                     }
+                    onRow(sheet.sheetName, row.rowNum + 1, cells)
                 }
-                
-                workbook.close()
             }
-        } catch (e: Exception) {
-            return ParseResult(emptyList(), listOf("Error reading Excel file: ${e.message}"))
+        }
+    }
+    
+    /**
+     * Validate one raw row and map it to a record, a skipped entry, or an error
+     */
+    fun validateRow(row: RawRow, validator: RecordValidator = RecordValidator.DEFAULT): ParsedRow {
+        val cells = row.cells
+        val plan = row.plan
+        if (cells.size < plan.minColumns) {
+            return ParsedRow.Error(row.lineNumber, "Line ${row.lineNumber}: Expected at least ${plan.minColumns} columns, found ${cells.size}")
         }
         
-        return ParseResult(records, errors, skippedRecords)
+        return try {
+            val phoneNumber = plan.phone(cells)
+            val pukLastFour = plan.puk(cells)
+            val fullName = plan.fullName(cells)
+            val cne = plan.cne(cells)
+            
+            val failures = validator.validate(phoneNumber, pukLastFour, fullName, cne)
+            
+            // If there are validation errors, skip this record
+            if (failures != RecordValidator.VALID) {
+                ParsedRow.Skipped(
+                    SkippedRecord(
+                        lineNumber = row.lineNumber,
+                        phoneNumber = phoneNumber,
+                        pukLastFour = pukLastFour,
+                        fullName = fullName,
+                        cne = cne,
+                        reason = validator.describe(failures),
+                        reasonMask = failures
+                    )
+                )
+            } else {
+                ParsedRow.Valid(
+                    row.lineNumber,
+                    RegistrationRecord(
+                        phoneNumber = phoneNumber,
+                        pukLastFour = pukLastFour,
+                        fullName = fullName,
+                        cne = cne
+                    )
+                )
+            }
+        } catch (e: Exception) {
+            ParsedRow.Error(row.lineNumber, "Line ${row.lineNumber}: ${e.message}")
+        }
     }
     
-    private fun isValidPhoneNumber(phone: String): Boolean {
-        // Moroccan phone numbers: starts with 0, followed by 6 or 7, total 10 digits
-        return phone.matches(Regex("^0[67]\\d{8}$"))
+    /**
+     * Read up to [SchemaSniffer.SAMPLE_SIZE] characters without consuming them from [reader].
+     * Returns the sample and whether it covers the whole file.
+     */
+    private fun readSample(reader: BufferedReader): Pair<String, Boolean> {
+        reader.mark(SchemaSniffer.SAMPLE_SIZE)
+        val buffer = CharArray(SchemaSniffer.SAMPLE_SIZE)
+        var length = 0
+        while (length < buffer.size) {
+            val read = reader.read(buffer, length, buffer.size - length)
+            if (read < 0) break
+            length += read
+        }
+        reader.reset()
+        return String(buffer, 0, length) to (length < buffer.size)
     }
 }
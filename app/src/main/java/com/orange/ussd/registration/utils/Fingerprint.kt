@@ -0,0 +1,47 @@
+package com.orange.ussd.registration.utils
+
+import com.orange.ussd.registration.data.model.RegistrationRecord
+
+/**
+ * 64-bit row fingerprints for incremental imports: FNV-1a over the record fields,
+ * followed by a Murmur3 finalizer to spread the bits.
+ * With a few hundred thousand rows the chance of any collision is around 1e-9.
+ */
+object Fingerprint {
+
+    private const val OFFSET_BASIS = -0x340d631b7bdddcdbL
+    private const val PRIME = 0x100000001b3L
+
+    fun of(record: RegistrationRecord): Long =
+        of(record.phoneNumber, record.pukLastFour, record.fullName, record.cne)
+
+    fun of(phone: CharSequence, puk: CharSequence, fullName: CharSequence, cne: CharSequence): Long {
+        var hash = OFFSET_BASIS
+        hash = update(hash, phone)
+        hash = update(hash, puk)
+        hash = update(hash, fullName)
+        hash = update(hash, cne)
+        return finish(hash)
+    }
+
+    private fun update(start: Long, text: CharSequence): Long {
+        var hash = start
+        for (i in 0 until text.length) {
+            val c = text[i].code
+            hash = (hash xor (c and 0xFF).toLong()) * PRIME
+            hash = (hash xor (c ushr 8).toLong()) * PRIME
+        }
+        // Field separator, so ("ab", "c") and ("a", "bc") differ
+        return (hash xor 0x1FL) * PRIME
+    }
+
+    private fun finish(start: Long): Long {
+        var hash = start
+        hash = hash xor (hash ushr 33)
+        hash *= -0xae502812aa7333L
+        hash = hash xor (hash ushr 33)
+        hash *= -0x3b314601e57a13adL
+        hash = hash xor (hash ushr 33)
+        return hash
+    }
+}
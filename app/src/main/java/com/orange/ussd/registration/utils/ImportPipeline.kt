@@ -0,0 +1,398 @@
+package com.orange.ussd.registration.utils
+
+import android.content.Context
+import android.net.Uri
+import androidx.room.withTransaction
+import com.orange.ussd.registration.data.database.AppDatabase
+import com.orange.ussd.registration.data.model.ImportJob
+import com.orange.ussd.registration.data.model.ImportJobStatus
+import com.orange.ussd.registration.data.model.RegistrationRecord
+import com.orange.ussd.registration.data.model.RowFingerprint
+import com.orange.ussd.registration.data.model.SkippedRow
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.NonCancellable
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.trySendBlocking
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.flow.conflate
+import kotlinx.coroutines.joinAll
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Import pipeline: readers -> validator -> database writer.
+ * The stages run concurrently and are connected by bounded channels, so file I/O,
+ * validation and SQLite inserts overlap and memory stays bounded by the channel capacity.
+ * Several files are read in parallel on a worker pool sized to the CPU count; their rows are
+ * merged into one queue and de-duplicated on phone number across all files and sheets.
+ * Records are upserted in transactions of [batchSize] rows, so re-importing a file does not
+ * duplicate or reset numbers that are already registered.
+ * Every file is tracked as an [ImportJob] whose checkpoint is committed with each batch; importing
+ * the same file again after a cancel or process death continues from that checkpoint.
+ * Imports are incremental: a file identical to one already imported is skipped outright, and
+ * rows whose [Fingerprint] is already stored are not written again.
+ */
+class ImportPipeline(
+    private val database: AppDatabase,
+    private val validator: RecordValidator = RecordValidator.DEFAULT,
+    private val batchSize: Int = DEFAULT_BATCH_SIZE,
+    private val channelCapacity: Int = DEFAULT_CHANNEL_CAPACITY
+) {
+
+    /**
+     * Snapshot of a running import. [errors] and [sources] are only filled in the final
+     * snapshot (when [isComplete] is true). Skipped rows are not kept in memory: they are
+     * stored per job and can be read back with the DAO for [jobIds].
+     */
+    data class Progress(
+        val rowsRead: Int,
+        val valid: Int,
+        val skipped: Int,
+        val duplicates: Int,
+        val inserted: Int,
+        val existing: Int,
+        val rowsPerSecond: Double,
+        val unchanged: Int = 0,
+        val unchangedFiles: Int = 0,
+        val resumedFiles: Int = 0,
+        val isComplete: Boolean = false,
+        val errors: List<String> = emptyList(),
+        val jobIds: List<Long> = emptyList(),
+        val sources: List<SourceSummary> = emptyList()
+    )
+
+    /**
+     * Per file (and per sheet) counts
+     */
+    data class SourceSummary(
+        val source: FileParser.Source,
+        val rowsRead: Int,
+        val valid: Int,
+        val skipped: Int,
+        val duplicates: Int,
+        val unchanged: Int
+    )
+
+    private class SourceCounters {
+        val rowsRead = AtomicInteger()
+        var valid = 0
+        var skipped = 0
+        var duplicates = 0
+        var unchanged = 0
+    }
+
+    /**
+     * A raw row tagged with the job of the file it came from
+     */
+    private class JobRow(val jobId: Long, val row: FileParser.RawRow)
+
+    /**
+     * A validated record waiting to be written, with the position to checkpoint once it is
+     */
+    private class PendingRecord(
+        val jobId: Long,
+        val record: RegistrationRecord,
+        val fingerprint: Long,
+        val row: FileParser.RawRow
+    )
+
+    fun run(context: Context, uri: Uri): Flow<Progress> = run(context, listOf(uri))
+
+    /**
+     * Import [uris] and publish progress. Collecting the returned Flow starts the import;
+     * cancelling the collector cancels all stages and leaves the jobs PAUSED at their last
+     * checkpoint. Work never runs on the collector's thread.
+     */
+    @OptIn(ExperimentalCoroutinesApi::class)
+    fun run(context: Context, uris: List<Uri>): Flow<Progress> = channelFlow {
+        val jobDao = database.importJobDao()
+        val rawRows = Channel<JobRow>(channelCapacity)
+        val validRecords = Channel<PendingRecord>(channelCapacity)
+        val skippedRows = Channel<SkippedRow>(channelCapacity)
+
+        val rowsRead = AtomicInteger()
+        val valid = AtomicInteger()
+        val skipped = AtomicInteger()
+        val duplicates = AtomicInteger()
+        val unchanged = AtomicInteger()
+        val inserted = AtomicInteger()
+        val existing = AtomicInteger()
+        val errors = mutableListOf<String>()
+        val sourceCounters = ConcurrentHashMap<FileParser.Source, SourceCounters>()
+        val failedJobs = ConcurrentHashMap.newKeySet<Long>()
+        val startNanos = System.nanoTime()
+
+        var unchangedFiles = 0
+        val jobs = withContext(Dispatchers.IO) {
+            uris.mapNotNull { uri ->
+                try {
+                    val job = openJob(context, uri)
+                    if (job == null) unchangedFiles++
+                    job?.let { uri to it }
+                } catch (e: Exception) {
+                    errors.add("${FileParser.displayName(context, uri)}: ${e.message}")
+                    null
+                }
+            }
+        }
+        val resumedFiles = jobs.count { (_, job) -> job.hasCheckpoint }
+
+        fun snapshot(isComplete: Boolean): Progress {
+            val elapsedSeconds = (System.nanoTime() - startNanos) / 1_000_000_000.0
+            val read = rowsRead.get()
+            return Progress(
+                rowsRead = read,
+                valid = valid.get(),
+                skipped = skipped.get(),
+                duplicates = duplicates.get(),
+                inserted = inserted.get(),
+                existing = existing.get(),
+                rowsPerSecond = if (elapsedSeconds > 0) read / elapsedSeconds else 0.0,
+                unchanged = unchanged.get(),
+                unchangedFiles = unchangedFiles,
+                resumedFiles = resumedFiles,
+                isComplete = isComplete,
+                errors = if (isComplete) errors else emptyList(),
+                jobIds = jobs.map { (_, job) -> job.id },
+                sources = if (isComplete) {
+                    sourceCounters.map { (source, counters) ->
+                        SourceSummary(
+                            source = source,
+                            rowsRead = counters.rowsRead.get(),
+                            valid = counters.valid,
+                            skipped = counters.skipped,
+                            duplicates = counters.duplicates,
+                            unchanged = counters.unchanged
+                        )
+                    }.sortedBy { it.source.toString() }
+                } else {
+                    emptyList()
+                }
+            )
+        }
+
+        // Stage 1: read raw rows, one reader per file, at most one per core
+        val readerDispatcher = Dispatchers.IO.limitedParallelism(
+            Runtime.getRuntime().availableProcessors().coerceAtLeast(1)
+        )
+        val readerJobs = jobs.map { (uri, job) ->
+            launch(readerDispatcher) {
+                try {
+                    FileParser.readRows(context, uri, resumePoint(job)) { row ->
+                        rawRows.trySendBlocking(JobRow(job.id, row)).getOrThrow()
+                        rowsRead.incrementAndGet()
+                        sourceCounters.getOrPut(row.source) { SourceCounters() }.rowsRead.incrementAndGet()
+                    }
+                } catch (e: CancellationException) {
+                    throw e
+                } catch (e: Exception) {
+                    failedJobs.add(job.id)
+                    synchronized(errors) {
+                        errors.add("${job.displayName}: ${e.message}")
+                    }
+                }
+            }
+        }
+        launch {
+            readerJobs.joinAll()
+            rawRows.close()
+        }
+
+        // Stage 2: validate, de-duplicate on phone number, drop unchanged rows and map rows to records
+        val validatorJob = launch(Dispatchers.Default) {
+            val seenPhoneKeys = LongHashSet(DEFAULT_EXPECTED_ROWS)
+            try {
+                val knownRows = loadFingerprints()
+                for (jobRow in rawRows) {
+                    val row = jobRow.row
+                    val counters = sourceCounters.getOrPut(row.source) { SourceCounters() }
+                    when (val parsed = FileParser.validateRow(row, validator)) {
+                        is FileParser.ParsedRow.Valid -> {
+                            val record = parsed.record
+                            if (!seenPhoneKeys.add(RecordValidator.phoneKey(record.phoneNumber))) {
+                                duplicates.incrementAndGet()
+                                counters.duplicates++
+                                continue
+                            }
+                            valid.incrementAndGet()
+                            counters.valid++
+                            val fingerprint = Fingerprint.of(record)
+                            if (knownRows.add(fingerprint)) {
+                                validRecords.send(PendingRecord(jobRow.jobId, record, fingerprint, row))
+                            } else {
+                                unchanged.incrementAndGet()
+                                counters.unchanged++
+                            }
+                        }
+                        is FileParser.ParsedRow.Skipped -> {
+                            skipped.incrementAndGet()
+                            counters.skipped++
+                            val rejected = parsed.record
+                            skippedRows.send(
+                                SkippedRow(
+                                    jobId = jobRow.jobId,
+                                    sheetName = row.source.sheetName ?: "",
+                                    lineNumber = rejected.lineNumber,
+                                    phoneNumber = rejected.phoneNumber,
+                                    pukLastFour = rejected.pukLastFour,
+                                    fullName = rejected.fullName,
+                                    cne = rejected.cne,
+                                    reasonMask = rejected.reasonMask
+                                )
+                            )
+                        }
+                        is FileParser.ParsedRow.Error -> synchronized(errors) {
+                            errors.add("${row.source}: ${parsed.message}")
+                        }
+                    }
+                }
+            } finally {
+                validRecords.close()
+                skippedRows.close()
+            }
+        }
+
+        // Stage 3: write records in batched transactions
+        val writerJob = launch(Dispatchers.IO) {
+            val batch = ArrayList<PendingRecord>(batchSize)
+            for (pending in validRecords) {
+                batch.add(pending)
+                if (batch.size >= batchSize) {
+                    val added = commit(batch)
+                    inserted.addAndGet(added)
+                    existing.addAndGet(batch.size - added)
+                    batch.clear()
+                }
+            }
+            if (batch.isNotEmpty()) {
+                val added = commit(batch)
+                inserted.addAndGet(added)
+                existing.addAndGet(batch.size - added)
+            }
+        }
+
+        // Stage 3b: store skipped rows for review, in their own batches
+        val skippedWriterJob = launch(Dispatchers.IO) {
+            val batch = ArrayList<SkippedRow>(batchSize)
+            for (row in skippedRows) {
+                batch.add(row)
+                if (batch.size >= batchSize) {
+                    database.skippedRowDao().insertAll(batch)
+                    batch.clear()
+                }
+            }
+            if (batch.isNotEmpty()) database.skippedRowDao().insertAll(batch)
+        }
+
+        val ticker = launch {
+            while (true) {
+                send(snapshot(isComplete = false))
+                delay(PROGRESS_INTERVAL_MS)
+            }
+        }
+
+        try {
+            (readerJobs + validatorJob + writerJob + skippedWriterJob).joinAll()
+        } catch (e: CancellationException) {
+            withContext(NonCancellable) {
+                jobDao.updateStatus(jobs.map { (_, job) -> job.id }, ImportJobStatus.PAUSED)
+            }
+            throw e
+        }
+        for ((_, job) in jobs) {
+            val status = if (job.id in failedJobs) ImportJobStatus.FAILED else ImportJobStatus.COMPLETED
+            jobDao.updateStatus(job.id, status)
+        }
+        ticker.cancel()
+        send(snapshot(isComplete = true))
+    }.conflate()
+
+    /**
+     * Continue the unfinished job for this exact file if there is one, otherwise start a new job.
+     * Returns null if the same content was already imported completely.
+     */
+    private suspend fun openJob(context: Context, uri: Uri): ImportJob? {
+        val jobDao = database.importJobDao()
+        val sourceUri = uri.toString()
+        val fileSize = FileParser.fileSize(context, uri)
+        val headHash = FileParser.headHash(context, uri)
+
+        val previous = jobDao.findResumable(sourceUri, fileSize, headHash)
+        if (previous != null) {
+            jobDao.updateStatus(previous.id, ImportJobStatus.RUNNING)
+            return previous
+        }
+
+        val contentHash = FileParser.contentHash(context, uri)
+        if (jobDao.findCompleted(fileSize, contentHash) != null) return null
+
+        val job = ImportJob(
+            sourceUri = sourceUri,
+            displayName = FileParser.displayName(context, uri),
+            fileSize = fileSize,
+            headHash = headHash,
+            contentHash = contentHash
+        )
+        return job.copy(id = jobDao.insert(job))
+    }
+
+    /**
+     * Fingerprints of every row imported so far, read page by page
+     */
+    private suspend fun loadFingerprints(): LongHashSet {
+        val dao = database.rowFingerprintDao()
+        val fingerprints = LongHashSet(maxOf(dao.getCount(), DEFAULT_EXPECTED_ROWS))
+        var after = Long.MIN_VALUE
+        while (true) {
+            val page = dao.getPage(after, FINGERPRINT_PAGE_SIZE)
+            for (fingerprint in page) fingerprints.add(fingerprint)
+            if (page.size < FINGERPRINT_PAGE_SIZE) break
+            after = page.last()
+        }
+        return fingerprints
+    }
+
+    private fun resumePoint(job: ImportJob): FileParser.ResumePoint? {
+        if (!job.hasCheckpoint) return null
+        return FileParser.ResumePoint(job.committedLine, job.committedOffset, job.committedSheet)
+    }
+
+    /**
+     * Upsert one batch, record its fingerprints and move each job's checkpoint to its last row
+     * in the batch, all in a single transaction; returns the number of new rows
+     */
+    private suspend fun commit(batch: List<PendingRecord>): Int {
+        return database.withTransaction {
+            var added = 0
+            // Rows of one job arrive in file order, so the last row of its group is the checkpoint
+            for ((jobId, group) in batch.groupBy { it.jobId }) {
+                val jobAdded = database.registrationDao().upsertAll(group.map { it.record })
+                database.rowFingerprintDao().insertAll(group.map { RowFingerprint(it.fingerprint) })
+                val last = group.last().row
+                database.importJobDao().updateCheckpoint(
+                    id = jobId,
+                    line = last.lineNumber,
+                    offset = last.endOffset,
+                    sheet = last.source.sheetName,
+                    inserted = jobAdded
+                )
+                added += jobAdded
+            }
+            added
+        }
+    }
+
+    companion object {
+        const val DEFAULT_BATCH_SIZE = 500
+        const val DEFAULT_CHANNEL_CAPACITY = 1024
+        private const val DEFAULT_EXPECTED_ROWS = 64 * 1024
+        private const val PROGRESS_INTERVAL_MS = 250L
+        private const val FINGERPRINT_PAGE_SIZE = 10_000
+    }
+}
@@ -0,0 +1,94 @@
+package com.orange.ussd.registration.utils
+
+/**
+ * Open-addressing hash set of primitive longs (linear probing, no boxing).
+ * Used to spot repeated phone keys during an import without allocating per row.
+ */
+class LongHashSet(expectedSize: Int = 1024) {
+
+    private var keys: LongArray
+    private var mask: Int
+    private var hasZero = false
+    private var resizeAt: Int
+
+    var size = 0
+        private set
+
+    init {
+        val capacity = tableSizeFor((expectedSize / LOAD_FACTOR).toInt() + 1)
+        keys = LongArray(capacity)
+        mask = capacity - 1
+        resizeAt = (capacity * LOAD_FACTOR).toInt()
+    }
+
+    /**
+     * Add [key]; returns false if it was already present
+     */
+    fun add(key: Long): Boolean {
+        if (key == EMPTY) {
+            if (hasZero) return false
+            hasZero = true
+            size++
+            return true
+        }
+
+        var index = mix(key) and mask
+        while (true) {
+            val current = keys[index]
+            if (current == EMPTY) break
+            if (current == key) return false
+            index = (index + 1) and mask
+        }
+        keys[index] = key
+        size++
+        if (size >= resizeAt) rehash(keys.size * 2)
+        return true
+    }
+
+    operator fun contains(key: Long): Boolean {
+        if (key == EMPTY) return hasZero
+
+        var index = mix(key) and mask
+        while (true) {
+            val current = keys[index]
+            if (current == EMPTY) return false
+            if (current == key) return true
+            index = (index + 1) and mask
+        }
+    }
+
+    private fun rehash(newCapacity: Int) {
+        val oldKeys = keys
+        keys = LongArray(newCapacity)
+        mask = newCapacity - 1
+        resizeAt = (newCapacity * LOAD_FACTOR).toInt()
+        for (key in oldKeys) {
+            if (key == EMPTY) continue
+            var index = mix(key) and mask
+            while (keys[index] != EMPTY) {
+                index = (index + 1) and mask
+            }
+            keys[index] = key
+        }
+    }
+
+    private fun mix(key: Long): Int {
+        // Murmur3 finalizer so sequential phone numbers spread over the table
+        var h = key
+        h = h xor (h ushr 33)
+        h *= -0xae502812aa7333L
+        h = h xor (h ushr 33)
+        return h.toInt()
+    }
+
+    private fun tableSizeFor(size: Int): Int {
+        var capacity = 16
+        while (capacity < size) capacity = capacity shl 1
+        return capacity
+    }
+
+    companion object {
+        private const val EMPTY = 0L
+        private const val LOAD_FACTOR = 0.5f
+    }
+}
@@ -0,0 +1,220 @@
+package com.orange.ussd.registration.utils
+
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * CSV reader working directly on a memory-mapped file.
+ * Delimiters, quotes and line breaks are found by scanning the mapped bytes in place; a row only
+ * records where its fields start and end, and text is decoded just for the fields asked for.
+ * Plain ASCII fields (phone numbers, PUKs, most CNEs) skip the UTF-8 decoder altogether.
+ * Quoting, blank lines and the BOM follow the same rules as [CsvReader], and offsets are file
+ * byte offsets, so checkpoints from either reader can be resumed by the other.
+ */
+class MappedCsvReader(private val buffer: ByteBuffer) {
+
+    /**
+     * The current row. The same instance is reused for every row, so read what is needed
+     * inside the callback.
+     */
+    inner class Row internal constructor() {
+        var lineNumber = 0
+            internal set
+        var endOffset = 0L
+            internal set
+        var fieldCount = 0
+            internal set
+
+        internal var starts = IntArray(16)
+        internal var ends = IntArray(16)
+
+        /**
+         * Decoded text of field [index], unquoted but not trimmed
+         */
+        fun field(index: Int): String = decode(starts[index], ends[index])
+
+        internal fun add(start: Int, end: Int) {
+            if (fieldCount == starts.size) {
+                starts = starts.copyOf(fieldCount * 2)
+                ends = ends.copyOf(fieldCount * 2)
+            }
+            starts[fieldCount] = start
+            ends[fieldCount] = end
+            fieldCount++
+        }
+    }
+
+    val size: Int = buffer.limit()
+
+    // Separate view for bulk copies so the scan never moves the buffer position
+    private val view: ByteBuffer = buffer.duplicate()
+    private var scratch = ByteArray(256)
+    private var unquoted = ByteArray(256)
+
+    /**
+     * The first [maxBytes] bytes decoded as UTF-8, for schema sniffing
+     */
+    fun sample(maxBytes: Int): String {
+        val length = minOf(size, maxBytes)
+        val bytes = ByteArray(length)
+        view.position(0)
+        view.get(bytes, 0, length)
+        return String(bytes, Charsets.UTF_8)
+    }
+
+    /**
+     * Scan rows starting at byte [startOffset] (which must be a row boundary) and call [onRow]
+     * for each non-blank one. [startLine] is the line number at [startOffset].
+     */
+    fun forEachRow(delimiter: Char, startOffset: Long = 0, startLine: Int = 1, onRow: (Row) -> Unit) {
+        require(delimiter.code < 0x80) { "Delimiter must be ASCII" }
+        val separator = delimiter.code.toByte()
+        val row = Row()
+        var pos = startOffset.toInt()
+        if (pos == 0 && hasBom()) pos = BOM.size
+        var line = startLine
+
+        while (pos < size) {
+            row.fieldCount = 0
+            row.lineNumber = line
+            var fieldStart = pos
+            var inQuotes = false
+            var fieldBlank = true
+            var sawContent = false
+            var i = pos
+
+            while (i < size) {
+                val b = buffer.get(i)
+                if (inQuotes) {
+                    if (b == QUOTE) {
+                        if (i + 1 < size && buffer.get(i + 1) == QUOTE) i++ else inQuotes = false
+                    } else if (b == LF) {
+                        line++
+                    }
+                    i++
+                    continue
+                }
+                if (b == LF) break
+                when {
+                    b == separator -> {
+                        row.add(fieldStart, i)
+                        fieldStart = i + 1
+                        fieldBlank = true
+                        sawContent = true
+                    }
+                    b == QUOTE -> {
+                        sawContent = true
+                        if (fieldBlank) inQuotes = true
+                        fieldBlank = false
+                    }
+                    !isSpace(b) -> {
+                        sawContent = true
+                        fieldBlank = false
+                    }
+                }
+                i++
+            }
+
+            val atEnd = i >= size
+            if (!atEnd) line++
+            if (sawContent) {
+                row.add(fieldStart, i)
+                row.endOffset = if (atEnd) size.toLong() else (i + 1).toLong()
+                onRow(row)
+            }
+            pos = i + 1
+        }
+    }
+
+    private fun hasBom(): Boolean {
+        if (size < BOM.size) return false
+        for (i in BOM.indices) {
+            if (buffer.get(i) != BOM[i]) return false
+        }
+        return true
+    }
+
+    private fun decode(start: Int, end: Int): String {
+        val length = end - start
+        if (length <= 0) return ""
+        if (scratch.size < length) scratch = ByteArray(maxOf(length, scratch.size * 2))
+        view.position(start)
+        view.get(scratch, 0, length)
+
+        var plain = true
+        for (i in 0 until length) {
+            val b = scratch[i]
+            if (b < 0 || b == QUOTE || b == CR) {
+                plain = false
+                break
+            }
+        }
+        if (plain) return String(scratch, 0, length, Charsets.ISO_8859_1)
+        return decodeQuoted(length)
+    }
+
+    /**
+     * Slow path: drop CRs, resolve quotes and "" escapes, then decode UTF-8
+     */
+    private fun decodeQuoted(length: Int): String {
+        if (unquoted.size < length) unquoted = ByteArray(scratch.size)
+        var count = 0
+        var inQuotes = false
+        var blank = true
+        var i = 0
+        while (i < length) {
+            val b = scratch[i]
+            if (inQuotes) {
+                if (b == QUOTE) {
+                    if (i + 1 < length && scratch[i + 1] == QUOTE) {
+                        unquoted[count++] = QUOTE
+                        i++
+                    } else {
+                        inQuotes = false
+                    }
+                } else {
+                    unquoted[count++] = b
+                    if (!isSpace(b)) blank = false
+                }
+            } else if (b == QUOTE && blank) {
+                // Opening quote: leading whitespace before it is dropped
+                count = 0
+                inQuotes = true
+            } else if (b != CR) {
+                unquoted[count++] = b
+                if (!isSpace(b)) blank = false
+            }
+            i++
+        }
+        return String(unquoted, 0, count, Charsets.UTF_8)
+    }
+
+    private fun isSpace(b: Byte): Boolean = b == SPACE || b in TAB..CR
+
+    companion object {
+        private const val LF: Byte = '\n'.code.toByte()
+        private const val CR: Byte = '\r'.code.toByte()
+        private const val TAB: Byte = '\t'.code.toByte()
+        private const val SPACE: Byte = ' '.code.toByte()
+        private const val QUOTE: Byte = '"'.code.toByte()
+        private val BOM = byteArrayOf(0xEF.toByte(), 0xBB.toByte(), 0xBF.toByte())
+
+        /**
+         * Map the whole of [channel] read-only. Returns null when it cannot be mapped
+         * (pipes, sockets, empty files or files over 2 GB), so callers can fall back to streaming.
+         */
+        fun map(channel: FileChannel): MappedCsvReader? {
+            return try {
+                val size = channel.size()
+                if (size <= 0 || size > Int.MAX_VALUE) {
+                    null
+                } else {
+                    MappedCsvReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, size))
+                }
+            } catch (e: IOException) {
+                null
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.orange.ussd.registration.utils
+
+/**
+ * Field validation shared by file import and manual entry.
+ * Checks scan characters directly (no regex, no intermediate strings) and report failures
+ * as a bitmask, which is only turned into messages for rows that are actually rejected.
+ */
+class RecordValidator(val rules: Rules = Rules()) {
+
+    /**
+     * Configurable validation rules. Defaults match Moroccan numbers (06/07 + 8 digits),
+     * 4-digit PUK suffix and any non-blank CNE.
+     */
+    data class Rules(
+        val phonePrefixes: List<String> = listOf("06", "07"),
+        val phoneLength: Int = 10,
+        val pukLength: Int = 4,
+        val cneMinLength: Int = 1,
+        val cneMaxLength: Int = Int.MAX_VALUE,
+        val cneAlphanumericOnly: Boolean = false
+    )
+
+    private val prefixes: Array<String> = rules.phonePrefixes.toTypedArray()
+
+    /**
+     * Validate one record's fields. Returns 0 when all fields are valid,
+     * otherwise a combination of the [INVALID_PHONE], [INVALID_PUK], [MISSING_NAME],
+     * [MISSING_CNE] and [INVALID_CNE] bits.
+     */
+    fun validate(phone: CharSequence, puk: CharSequence, fullName: CharSequence, cne: CharSequence): Int {
+        var mask = 0
+        if (!isValidPhoneNumber(phone)) mask = mask or INVALID_PHONE
+        if (!isValidPuk(puk)) mask = mask or INVALID_PUK
+        if (isBlank(fullName)) mask = mask or MISSING_NAME
+        if (isBlank(cne)) {
+            mask = mask or MISSING_CNE
+        } else if (!isValidCne(cne)) {
+            mask = mask or INVALID_CNE
+        }
+        return mask
+    }
+
+    fun isValidPhoneNumber(phone: CharSequence): Boolean {
+        if (phone.length != rules.phoneLength) return false
+        for (i in 0 until phone.length) {
+            if (phone[i] !in '0'..'9') return false
+        }
+        if (prefixes.isEmpty()) return true
+        for (prefix in prefixes) {
+            if (startsWith(phone, prefix)) return true
+        }
+        return false
+    }
+
+    fun isValidPuk(puk: CharSequence): Boolean {
+        if (puk.length != rules.pukLength) return false
+        for (i in 0 until puk.length) {
+            if (puk[i] !in '0'..'9') return false
+        }
+        return true
+    }
+
+    private fun isValidCne(cne: CharSequence): Boolean {
+        if (cne.length < rules.cneMinLength || cne.length > rules.cneMaxLength) return false
+        if (rules.cneAlphanumericOnly) {
+            for (i in 0 until cne.length) {
+                val c = cne[i]
+                if (c !in '0'..'9' && c !in 'A'..'Z' && c !in 'a'..'z') return false
+            }
+        }
+        return true
+    }
+
+    /**
+     * Human readable reasons for a failure [mask], joined with ", "
+     */
+    fun describe(mask: Int): String {
+        val reasons = StringBuilder()
+        for (bit in REASON_BITS) {
+            if (mask and bit != 0) {
+                if (reasons.isNotEmpty()) reasons.append(", ")
+                reasons.append(message(bit))
+            }
+        }
+        return reasons.toString()
+    }
+
+    /**
+     * Message for the lowest failing bit of [mask]
+     */
+    fun firstMessage(mask: Int): String = message(Integer.lowestOneBit(mask))
+
+    fun message(bit: Int): String = when (bit) {
+        INVALID_PHONE -> "Invalid phone number"
+        INVALID_PUK -> "PUK must be exactly ${rules.pukLength} digits"
+        MISSING_NAME -> "Full name is required"
+        MISSING_CNE -> "CNE is required"
+        INVALID_CNE -> "Invalid CNE format"
+        else -> "Invalid record"
+    }
+
+    private fun startsWith(text: CharSequence, prefix: String): Boolean {
+        if (prefix.length > text.length) return false
+        for (i in prefix.indices) {
+            if (text[i] != prefix[i]) return false
+        }
+        return true
+    }
+
+    private fun isBlank(text: CharSequence): Boolean {
+        for (i in 0 until text.length) {
+            if (!text[i].isWhitespace()) return false
+        }
+        return true
+    }
+
+    companion object {
+        const val VALID = 0
+        const val INVALID_PHONE = 1
+        const val INVALID_PUK = 1 shl 1
+        const val MISSING_NAME = 1 shl 2
+        const val MISSING_CNE = 1 shl 3
+        const val INVALID_CNE = 1 shl 4
+
+        /** Every failure bit, in reporting order */
+        val REASON_BITS = intArrayOf(INVALID_PHONE, INVALID_PUK, MISSING_NAME, MISSING_CNE, INVALID_CNE)
+
+        val DEFAULT = RecordValidator()
+
+        /**
+         * Compact 64-bit key for a digits-only phone number. A leading 1 is prepended so that
+         * leading zeros are kept ("0612345678" -> 10612345678). Returns -1 if [phone] is not
+         * 1..18 digits.
+         */
+        fun phoneKey(phone: CharSequence): Long {
+            if (phone.isEmpty() || phone.length > 18) return -1
+            var key = 1L
+            for (i in 0 until phone.length) {
+                val c = phone[i]
+                if (c !in '0'..'9') return -1
+                key = key * 10 + (c - '0')
+            }
+            return key
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.orange.ussd.registration.utils
+
+/**
+ * Infers the layout of an import file from a small prefix sample:
+ * the CSV delimiter (by column-count consistency) and the [ColumnPlan] (by header names,
+ * falling back to the 4/5 column positional formats).
+ */
+object SchemaSniffer {
+
+    /** Number of characters inspected for CSV sniffing */
+    const val SAMPLE_SIZE = 8 * 1024
+
+    private val CANDIDATE_DELIMITERS = charArrayOf(';', ',', '\t', '|')
+    private const val MIN_COLUMNS = 4
+
+    private enum class Field { PHONE, PUK, CNE, FULL_NAME, FIRST_NAME, LAST_NAME }
+
+    // Header names are compared after upper-casing and dropping everything but letters and digits
+    private val HEADER_NAMES: Map<String, Field> = mapOf(
+        "PHONENUMBER" to Field.PHONE,
+        "PHONE" to Field.PHONE,
+        "TELEPHONE" to Field.PHONE,
+        "TEL" to Field.PHONE,
+        "MSISDN" to Field.PHONE,
+        "NUMERO" to Field.PHONE,
+        "PUKLAST4" to Field.PUK,
+        "PUKLASTFOUR" to Field.PUK,
+        "PUK" to Field.PUK,
+        "DDDD" to Field.PUK,
+        "CNE" to Field.CNE,
+        "CIN" to Field.CNE,
+        "CNIE" to Field.CNE,
+        "FULLNAME" to Field.FULL_NAME,
+        "NAME" to Field.FULL_NAME,
+        "NOMCOMPLET" to Field.FULL_NAME,
+        "FIRSTNAME" to Field.FIRST_NAME,
+        "PRENOM" to Field.FIRST_NAME,
+        "LASTNAME" to Field.LAST_NAME,
+        "NOM" to Field.LAST_NAME,
+        "SURNAME" to Field.LAST_NAME
+    )
+
+    /**
+     * Pick the candidate delimiter whose per-line column count is the most consistent over
+     * the complete lines of [sample]. [isWholeFile] tells whether the last line is complete.
+     */
+    fun detectDelimiter(sample: CharSequence, isWholeFile: Boolean): Char {
+        var best = ','
+        var bestScore = 0.0
+        var bestColumns = 0
+
+        for (candidate in CANDIDATE_DELIMITERS) {
+            val counts = lineColumnCounts(sample, candidate, isWholeFile)
+            if (counts.isEmpty()) continue
+
+            val (columns, frequency) = mode(counts)
+            if (columns < 2) continue
+
+            var score = frequency.toDouble() / counts.size
+            if (columns < MIN_COLUMNS) score /= 2
+
+            if (score > bestScore || (score == bestScore && columns > bestColumns)) {
+                best = candidate
+                bestScore = score
+                bestColumns = columns
+            }
+        }
+        return best
+    }
+
+    /**
+     * Most common column count of the complete lines in [sample]
+     */
+    fun modalColumnCount(sample: CharSequence, delimiter: Char, isWholeFile: Boolean): Int {
+        val counts = lineColumnCounts(sample, delimiter, isWholeFile)
+        return if (counts.isEmpty()) 0 else mode(counts).first
+    }
+
+    /**
+     * Build the column plan from the first row of the file. When the row is a header the
+     * columns are mapped by name in any order; otherwise the positional 4/5 column format
+     * is chosen from [columnCount].
+     */
+    fun planFor(firstRow: List<String>, columnCount: Int): ColumnPlan {
+        val indexes = IntArray(Field.values().size) { -1 }
+        var matched = 0
+        firstRow.forEachIndexed { index, cell ->
+            val field = HEADER_NAMES[normalizeHeader(cell)] ?: return@forEachIndexed
+            if (indexes[field.ordinal] < 0) {
+                indexes[field.ordinal] = index
+                matched++
+            }
+        }
+
+        val hasNames = indexes[Field.FULL_NAME.ordinal] >= 0 ||
+                (indexes[Field.FIRST_NAME.ordinal] >= 0 && indexes[Field.LAST_NAME.ordinal] >= 0)
+        val isComplete = indexes[Field.PHONE.ordinal] >= 0 &&
+                indexes[Field.PUK.ordinal] >= 0 &&
+                indexes[Field.CNE.ordinal] >= 0 &&
+                hasNames
+
+        if (isComplete) {
+            val useFullName = indexes[Field.FULL_NAME.ordinal] >= 0
+            return ColumnPlan(
+                phone = indexes[Field.PHONE.ordinal],
+                puk = indexes[Field.PUK.ordinal],
+                cne = indexes[Field.CNE.ordinal],
+                fullName = if (useFullName) indexes[Field.FULL_NAME.ordinal] else -1,
+                firstName = if (useFullName) -1 else indexes[Field.FIRST_NAME.ordinal],
+                lastName = if (useFullName) -1 else indexes[Field.LAST_NAME.ordinal],
+                hasHeader = true
+            )
+        }
+
+        // Partial or legacy header: skip it but keep the positional layout
+        val isHeader = matched >= 2 || isLegacyHeader(firstRow.firstOrNull() ?: "")
+        return ColumnPlan.positional(if (columnCount > 0) columnCount else firstRow.size, isHeader)
+    }
+
+    /**
+     * Original header check: mentions PHONE (or a sample number) but does not start with 06
+     */
+    private fun isLegacyHeader(text: String): Boolean {
+        val looksLikeHeader = text.contains("PHONE", ignoreCase = true) ||
+                              text.contains("0665", ignoreCase = true) ||
+                              text.contains("0622", ignoreCase = true)
+        return looksLikeHeader && !text.startsWith("06")
+    }
+
+    private fun normalizeHeader(cell: String): String {
+        val normalized = StringBuilder(cell.length)
+        for (c in cell) {
+            when (c) {
+                in 'a'..'z' -> normalized.append(c - ('a' - 'A'))
+                in 'A'..'Z', in '0'..'9' -> normalized.append(c)
+                'é', 'è', 'ê', 'É', 'È' -> normalized.append('E')
+            }
+        }
+        return normalized.toString()
+    }
+
+    /**
+     * Column count per complete, non-blank line, honouring quoted fields
+     */
+    private fun lineColumnCounts(sample: CharSequence, delimiter: Char, isWholeFile: Boolean): List<Int> {
+        val counts = ArrayList<Int>()
+        var columns = 1
+        var inQuotes = false
+        var blank = true
+
+        for (i in 0 until sample.length) {
+            val c = sample[i]
+            when {
+                c == '"' -> {
+                    inQuotes = !inQuotes
+                    blank = false
+                }
+                inQuotes -> Unit
+                c == delimiter -> {
+                    columns++
+                    blank = false
+                }
+                c == '\n' -> {
+                    if (!blank) counts.add(columns)
+                    columns = 1
+                    blank = true
+                }
+                !c.isWhitespace() -> blank = false
+            }
+        }
+        if (isWholeFile && !blank) counts.add(columns)
+        return counts
+    }
+
+    private fun mode(counts: List<Int>): Pair<Int, Int> {
+        val frequencies = HashMap<Int, Int>()
+        var best = 0
+        var bestFrequency = 0
+        for (count in counts) {
+            val frequency = (frequencies[count] ?: 0) + 1
+            frequencies[count] = frequency
+            if (frequency > bestFrequency || (frequency == bestFrequency && count > best)) {
+                best = count
+                bestFrequency = frequency
+            }
+        }
+        return best to bestFrequency
+    }
+}
@@ -0,0 +1,92 @@
+package com.orange.ussd.registration.utils
+
+import org.apache.poi.openxml4j.opc.OPCPackage
+import org.apache.poi.openxml4j.opc.PackageAccess
+import org.apache.poi.ss.usermodel.DataFormatter
+import org.apache.poi.ss.util.CellReference
+import org.apache.poi.util.XMLHelper
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable
+import org.apache.poi.xssf.eventusermodel.XSSFReader
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler
+import org.apache.poi.xssf.usermodel.XSSFComment
+import org.xml.sax.InputSource
+import java.io.Closeable
+import java.io.File
+
+/**
+ * Event-model (SAX) reader for .xlsx workbooks.
+ * The shared-strings table and the sheet XML are streamed straight from the zip,
+ * so no workbook DOM is built and memory does not grow with the number of rows.
+ * All sheets are read, one after another.
+ */
+class XlsxStreamReader(file: File) : Closeable {
+
+    private val pkg: OPCPackage = OPCPackage.open(file, PackageAccess.READ)
+
+    /**
+     * Read every sheet in workbook order and call [onRow] with the sheet name, the 1-based
+     * row number and the formatted cell values. Missing cells inside a row are returned as empty strings.
+     */
+    fun forEachRow(onRow: (sheetName: String, rowNumber: Int, cells: List<String>) -> Unit) {
+        val reader = XSSFReader(pkg)
+        val sharedStrings = ReadOnlySharedStringsTable(pkg, false)
+        val styles = reader.stylesTable
+        val sheets = reader.sheetsData as XSSFReader.SheetIterator
+
+        while (sheets.hasNext()) {
+            sheets.next().use { sheetStream ->
+                val sheetName = sheets.sheetName
+                val handler = XSSFSheetXMLHandler(
+                    styles,
+                    null,
+                    sharedStrings,
+                    RowCollector { rowNumber, cells -> onRow(sheetName, rowNumber, cells) },
+                    DataFormatter(),
+                    false
+                )
+                val parser = XMLHelper.newXMLReader()
+                parser.contentHandler = handler
+                parser.parse(InputSource(sheetStream))
+            }
+        }
+    }
+
+    override fun close() {
+        pkg.revert()
+    }
+
+    private class RowCollector(
+        private val onRow: (rowNumber: Int, cells: List<String>) -> Unit
+    ) : XSSFSheetXMLHandler.SheetContentsHandler {
+
+        private var cells = ArrayList<String>(8)
+        private var nextColumn = 0
+
+        override fun startRow(rowNum: Int) {
+            cells = ArrayList(8)
+            nextColumn = 0
+        }
+
+        override fun endRow(rowNum: Int) {
+            if (cells.isNotEmpty()) {
+                onRow(rowNum + 1, cells)
+            }
+        }
+
+        override fun cell(cellReference: String?, formattedValue: String?, comment: XSSFComment?) {
+            val column = if (cellReference != null) {
+                CellReference(cellReference).col.toInt()
+            } else {
+                nextColumn
+            }
+            // Pad skipped (empty) cells so column indexes stay aligned
+            while (cells.size < column) {
+                cells.add("")
+            }
+            cells.add(formattedValue ?: "")
+            nextColumn = column + 1
+        }
+
+        override fun headerFooter(text: String?, isHeader: Boolean, tagName: String?) = Unit
+    }
+}